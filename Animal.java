@@ -12,13 +12,40 @@ public abstract class Animal
 
     // Whether the animal is alive or not.
     private boolean alive;
-    // The animal's position.
-    private Location location;
+    // The animal's position: its cell in the field it was last placed
+    // in (see Field.placeAnimal), or -1 if it has not been placed yet or
+    // is dead. The location is only built from it when asked for.
+    private int cell = -1;
+    // The field the cell is in, which knows its location.
+    private Field placedIn;
+    // Where a new animal is to go, until it is first placed.
+    private Location origin;
     // The animal's gender, assigned randomly at birth.
-    private final Gender gender;
-    // Shared instance state for subclasses
-    protected int age;
-    protected int foodLevel;
+    private Gender gender;
+    // The flag for a female in an EntitySlots slot.
+    private static final int FEMALE = 1;
+    // The id of the animal's species (see Species).
+    private final int speciesId;
+    // The animal is carried over without acting until this step (see
+    // StepScheduler).
+    private int dormantUntil;
+    // Whether this dead animal has been handed to the EntityPool, and how
+    // many times it has been reused.
+    private boolean recycled;
+    private int generation;
+    // The animal's age and food level, read and set through getAge,
+    // setAge, getFoodLevel and setFoodLevel. While it is alive in a field
+    // stored off the heap, they and its gender are kept in a slot of the
+    // field's EntitySlots instead.
+    private int age;
+    private int foodLevel;
+    private EntitySlots slots;
+    private int slot = -1;
+
+    /**
+     * Return this animal's species.
+     */
+    abstract public Species getSpecies();
 
     /**
      * Return the maximum age for this animal species.
@@ -39,12 +66,134 @@ public abstract class Animal
      * @param location The animal's location.
      */
     public Animal(Location location)
+    {
+        this(location, rand);
+    }
+
+    /**
+     * Constructor for objects of class Animal.
+     * @param location The animal's location.
+     * @param rand The random generator deciding the animal's gender.
+     */
+    public Animal(Location location, java.util.Random rand)
     {
         this.alive = true;
-        this.location = location;
+        this.origin = location;
         this.age = 0;
         this.foodLevel = 0;
         this.gender = rand.nextBoolean() ? Gender.MALE : Gender.FEMALE;
+        this.speciesId = getSpecies().getId();
+    }
+
+    /**
+     * Draw the state a newborn of this species starts with, other than
+     * its gender. Called on construction and when a dead animal is
+     * reused. Default: nothing.
+     * @param rand The random generator deciding the state.
+     */
+    protected void newborn(java.util.Random rand)
+    {
+    }
+
+    /**
+     * Return the random generator that newborns of this species made by
+     * createYoung draw their state from.
+     */
+    protected abstract java.util.Random getBirthRandom();
+
+    /**
+     * Bring this dead animal back as a newborn (see EntityPool), drawing
+     * its state as createYoung would. It is positioned when placed.
+     */
+    void reuse()
+    {
+        java.util.Random rand = getBirthRandom();
+        alive = true;
+        cell = -1;
+        origin = null;
+        age = 0;
+        foodLevel = 0;
+        gender = rand.nextBoolean() ? Gender.MALE : Gender.FEMALE;
+        dormantUntil = 0;
+        recycled = false;
+        generation++;
+        newborn(rand);
+    }
+
+    /**
+     * Return whether this dead animal has been handed to the EntityPool.
+     */
+    boolean isRecycled()
+    {
+        return recycled;
+    }
+
+    void setRecycled(boolean recycled)
+    {
+        this.recycled = recycled;
+    }
+
+    /**
+     * Return the number of times this animal has been reused.
+     */
+    int getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Return the id of this animal's species.
+     */
+    public int getSpeciesId()
+    {
+        return speciesId;
+    }
+
+    /**
+     * Overwrite this animal's state with state recorded elsewhere, e.g.
+     * an animal received from another process.
+     */
+    protected void restore(int age, int foodLevel, Gender gender)
+    {
+        setAge(age);
+        setFoodLevel(foodLevel);
+        setGender(gender);
+    }
+
+    /**
+     * Return this animal's age in steps.
+     */
+    public int getAge()
+    {
+        return slot < 0 ? age : slots.get(slot, EntitySlots.AGE);
+    }
+
+    protected void setAge(int age)
+    {
+        if(slot < 0) {
+            this.age = age;
+        }
+        else {
+            slots.set(slot, EntitySlots.AGE, age);
+        }
+    }
+
+    /**
+     * Return this animal's food level; only meaningful if it uses hunger.
+     */
+    public int getFoodLevel()
+    {
+        return slot < 0 ? foodLevel : slots.get(slot, EntitySlots.FOOD_LEVEL);
+    }
+
+    protected void setFoodLevel(int foodLevel)
+    {
+        if(slot < 0) {
+            this.foodLevel = foodLevel;
+        }
+        else {
+            slots.set(slot, EntitySlots.FOOD_LEVEL, foodLevel);
+        }
     }
 
     /**
@@ -52,7 +201,39 @@ public abstract class Animal
      */
     public Gender getGender()
     {
-        return gender;
+        if(slot < 0) {
+            return gender;
+        }
+        return (slots.get(slot, EntitySlots.FLAGS) & FEMALE) != 0 ? Gender.FEMALE : Gender.MALE;
+    }
+
+    private void setGender(Gender gender)
+    {
+        if(slot < 0) {
+            this.gender = gender;
+        }
+        else {
+            slots.set(slot, EntitySlots.FLAGS, gender == Gender.FEMALE ? FEMALE : 0);
+        }
+    }
+
+    /**
+     * Move the animal's age, food level and gender into a slot of the
+     * given table, or back into this object if it is null.
+     */
+    private void moveState(EntitySlots target)
+    {
+        int currentAge = getAge();
+        int currentFoodLevel = getFoodLevel();
+        Gender currentGender = getGender();
+        if(slot >= 0) {
+            slots.release(slot);
+        }
+        slots = target;
+        slot = target == null ? -1 : target.take();
+        setAge(currentAge);
+        setFoodLevel(currentFoodLevel);
+        setGender(currentGender);
     }
 
     /**
@@ -75,12 +256,15 @@ public abstract class Animal
 
     protected boolean hasOppositeGenderNeighbour(Field currentField)
     {
-        for(Location loc : currentField.getLocationsWithinRadius(getLocation(), getGenderSearchRadius())) {
-            Animal neighbour = currentField.getAnimalAt(loc);
+        int radius = getGenderSearchRadius();
+        int[] cells = radiusBuffer(radius);
+        int count = currentField.getCellsWithinRadius(cell, radius, cells);
+        for(int i = 0; i < count; i++) {
+            Animal neighbour = currentField.getAnimalAt(cells[i]);
             if(neighbour != null
                     && neighbour.isAlive()
-                    && neighbour.getClass() == this.getClass()
-                    && neighbour.getGender() != this.gender) {
+                    && neighbour.speciesId == speciesId
+                    && neighbour.getGender() != getGender()) {
                 return true;
             }
         }
@@ -92,9 +276,62 @@ public abstract class Animal
      * @param currentField The current state of the field.
      * @param nextFieldState The new state being built.
      * @param isNight If its night or not
-     * @param weather Current weather
+     * @param weather The weather at the animal's cell
      */
     abstract public void act(Field currentField, Field nextFieldState, boolean isNight, Weather weather);
+
+    /**
+     * Return how many of the following steps this animal can be carried
+     * over (see carryOver) instead of acting, unless it is disturbed.
+     * Called after it has acted. Default: none.
+     * @param stepsToDawn The number of following steps that are still
+     *                    night (0 by day).
+     */
+    protected int dormantSteps(int stepsToDawn)
+    {
+        return 0;
+    }
+
+    /**
+     * Advance a dormant animal a step as act does when it rests: it ages,
+     * gets hungrier and breeds and, if it survives, stays where it is.
+     * It asks isResting as act does, so that the same numbers are drawn
+     * and the neighbour masks are built at the same point of the step.
+     * @param currentField The current state of the field.
+     * @param nextFieldState The new state being built.
+     * @param isNight If its night or not
+     */
+    public void carryOver(Field currentField, Field nextFieldState, boolean isNight)
+    {
+        incrementAge();
+        incrementHunger();
+        if(isAlive()) {
+            FreeCells free = FreeCells.around(nextFieldState, cell);
+            if(!free.isEmpty()) {
+                giveBirth(currentField, nextFieldState, free);
+            }
+            boolean resting = isResting(currentField, isNight);
+            // A predator next to it would have woken it (see StepScheduler).
+            assert resting : "A dormant " + getSpecies().getLabel() + " was disturbed";
+            nextFieldState.placeAnimal(this, cell);
+        }
+    }
+
+    /**
+     * Return the step until which this animal is carried over.
+     */
+    int getDormantUntil()
+    {
+        return dormantUntil;
+    }
+
+    /**
+     * Carry this animal over until the given step.
+     */
+    void setDormantUntil(int step)
+    {
+        dormantUntil = step;
+    }
     
     /**
      * Check whether the animal is alive or not.
@@ -111,7 +348,9 @@ public abstract class Animal
     protected void setDead()
     {
         alive = false;
-        location = null;
+        moveState(null);
+        cell = -1;
+        origin = null;
     }
     
     /**
@@ -120,16 +359,45 @@ public abstract class Animal
      */
     public Location getLocation()
     {
-        return location;
+        if(cell < 0) {
+            return origin;
+        }
+        return placedIn.locationOf(cell);
     }
-    
+
+    /**
+     * Return the animal's cell in the field it was last placed in, or -1
+     * if it has not been placed or is dead.
+     */
+    public int getCell()
+    {
+        return cell;
+    }
+
+    /**
+     * Record that the animal has been placed at the cell of the given
+     * field. Called by the field.
+     */
+    void placedAt(int cell, Field field)
+    {
+        this.cell = cell;
+        placedIn = field;
+        origin = null;
+        if(field.getEntitySlots() != slots) {
+            moveState(field.getEntitySlots());
+        }
+    }
+
     /**
-     * Set the animal's location.
-     * @param location The new location.
+     * Record that the field is being emptied under the animal: if it
+     * was last placed there, its state moves back into this object.
+     * Called by the field.
      */
-    protected void setLocation(Location location)
+    void removedFrom(Field field)
     {
-        this.location = location;
+        if(placedIn == field && slot >= 0) {
+            moveState(null);
+        }
     }
 
     /**
@@ -137,8 +405,9 @@ public abstract class Animal
      */
     protected void incrementAge()
     {
-        age++;
-        if(age > getMaxAge()) {
+        int newAge = getAge() + 1;
+        setAge(newAge);
+        if(newAge > getMaxAge()) {
             setDead();
         }
     }
@@ -151,41 +420,90 @@ public abstract class Animal
         if(!usesHunger()) {
             return;
         }
-        foodLevel--;
-        if(foodLevel <= 0) {
+        int newFoodLevel = getFoodLevel() - 1;
+        setFoodLevel(newFoodLevel);
+        if(newFoodLevel <= 0) {
             setDead();
         }
     }
 
     // Random generator for breeding/food decisions
     private static final java.util.Random rand = Randomizer.getRandom();
+    // Per-thread scratch buffers for neighbour cells, so that neighbour
+    // scans allocate nothing (animals may plan on several threads).
+    private static final ThreadLocal<int[]> adjacentCells =
+        ThreadLocal.withInitial(() -> new int[8]);
+    private static final ThreadLocal<int[]> radiusCells =
+        ThreadLocal.withInitial(() -> new int[0]);
 
     /**
-     * Return a list of Classes this animal will consider prey.
-     * Subclasses should override to specify prey types.
+     * The free cells around an acting animal in the next field state,
+     * taken one at a time for its young and then its move. There is one
+     * per thread, so finding them allocates nothing.
      */
-    protected java.util.List<Class<?>> getPreyClasses()
+    protected static final class FreeCells
     {
-        return java.util.Collections.emptyList();
+        private static final ThreadLocal<FreeCells> perThread = ThreadLocal.withInitial(FreeCells::new);
+
+        private final int[] cells = new int[8];
+        private int count;
+        // The number of cells taken so far.
+        private int taken;
+
+        /**
+         * Find the free cells around the cell in random order,
+         * replacing this thread's previous ones.
+         */
+        static FreeCells around(Field nextFieldState, int cell)
+        {
+            FreeCells free = perThread.get();
+            free.count = nextFieldState.getFreeAdjacentCells(cell, free.cells);
+            free.taken = 0;
+            return free;
+        }
+
+        boolean isEmpty()
+        {
+            return taken == count;
+        }
+
+        /**
+         * Take the next free cell, or return -1 if none are left.
+         */
+        int take()
+        {
+            return taken < count ? cells[taken++] : -1;
+        }
     }
 
     /**
-     * Return the food value gained by eating an object of the given class.
-     * Subclasses that eat should override.
+     * Return this thread's buffer for adjacent cells.
      */
-    protected int getFoodValue(Class<?> preyClass)
+    protected static int[] adjacentBuffer()
     {
-        return 0;
+        return adjacentCells.get();
     }
 
     /**
-     * Determine whether this animal (or plant) can be eaten by the
-     * given predator. Subclasses override to provide species-specific
-     * rules. Default is not edible.
+     * Return this thread's buffer for cells within the given radius.
+     */
+    protected static int[] radiusBuffer(int radius)
+    {
+        int[] cells = radiusCells.get();
+        if(cells.length < Field.neighbourhoodSize(radius)) {
+            cells = new int[Field.neighbourhoodSize(radius)];
+            radiusCells.set(cells);
+        }
+        return cells;
+    }
+
+    /**
+     * Determine whether this animal can be eaten by the given predator
+     * right now, according to the diet matrix.
      */
     public boolean isEdibleBy(Animal predator)
     {
-        return false;
+        return Diet.eats(predator.speciesId, speciesId, predator.getFoodLevel());
     }
 
     /**
@@ -199,48 +517,97 @@ public abstract class Animal
     }
 
     /**
-     * Whether this predator is willing to eat prey of the given class right now.
-     * Allows conditional hunting — e.g. only eat secondary prey when hungry.
-     * Default: always willing to eat anything that isEdibleBy returns true for.
+     * Look for prey adjacent to the current cell. If found, kill it,
+     * set foodLevel appropriately and return its cell. Otherwise return -1.
      */
-    protected boolean canEat(Class<?> preyClass) { return true; }
+    protected int findFood(Field field)
+    {
+        int foodCell = chooseFood(field);
+        if(foodCell >= 0) {
+            eat(field, foodCell);
+        }
+        return foodCell;
+    }
 
     /**
-     * Look for prey adjacent to the current location. If found, kill it,
-     * set foodLevel appropriately and return its location. Otherwise return null.
+     * Choose the adjacent cell this animal would feed at, without
+     * killing anything. Returns -1 if it is not hungry or nothing
+     * edible is adjacent.
      */
-    protected Location findFood(Field field)
+    protected int chooseFood(Field field)
     {
         // Only eat if hungry enough.
+        int foodLevel = getFoodLevel();
         if(foodLevel > getHungerThreshold()) {
-            return null;
+            return -1;
+        }
+        int here = cell;
+        // Nothing this animal eats is anywhere nearby.
+        if((field.getNeighbourMask(here) & Diet.preyMask(speciesId)) == 0) {
+            return -1;
         }
-        java.util.List<Location> adjacent = field.getAdjacentLocations(getLocation());
-        java.util.Iterator<Location> it = adjacent.iterator();
-        Location foodLocation = null;
-        while(foodLocation == null && it.hasNext()) {
-            Location loc = it.next();
-            // First check for an animal at the location.
-            Animal animal = field.getAnimalAt(loc);
-            if(animal != null && animal.isAlive()) {
-                if(animal.isEdibleBy(this) && canEat(animal.getClass())) {
-                    animal.setDead();
-                    foodLevel = getFoodValue(animal.getClass());
-                    foodLocation = loc;
-                    break;
-                }
+        int[] adjacent = adjacentBuffer();
+        int count = field.getAdjacentCells(here, adjacent);
+        for(int i = 0; i < count; i++) {
+            int there = adjacent[i];
+            // First check for an animal at the cell.
+            Animal animal = field.getAnimalAt(there);
+            if(animal != null && animal.isAlive()
+                    && Diet.eats(speciesId, animal.speciesId, foodLevel)) {
+                return there;
             }
             // Next check for a plant in the plant layer.
-            Plant plant = field.getPlantAt(loc);
-            if(plant != null && plant.isAlive() && plant.isEdibleBy(this)) {
-                plant.setDead();
-                field.clearPlant(loc);
-                foodLevel = getFoodValue(plant.getClass());
-                foodLocation = loc;
-                break;
+            Plant plant = field.getPlantAt(there);
+            if(plant != null && plant.isAlive() && plant.isEdible()
+                    && Diet.eats(speciesId, plant.getSpeciesId(), foodLevel)) {
+                return there;
             }
         }
-        return foodLocation;
+        return -1;
+    }
+
+    /**
+     * Eat whatever this animal may eat at the given cell: an animal
+     * takes precedence over a plant. The food is killed and foodLevel set.
+     * @return true if something was eaten.
+     */
+    protected boolean eat(Field field, int cell)
+    {
+        int foodLevel = getFoodLevel();
+        Animal animal = field.getAnimalAt(cell);
+        if(animal != null && animal.isAlive()
+                && Diet.eats(speciesId, animal.speciesId, foodLevel)) {
+            animal.setDead();
+            setFoodLevel(Diet.foodValue(speciesId, animal.speciesId));
+            return true;
+        }
+        Plant plant = field.getPlantAt(cell);
+        if(plant != null && plant.isAlive() && plant.isEdible()
+                && Diet.eats(speciesId, plant.getSpeciesId(), foodLevel)) {
+            plant.setDead();
+            field.clearPlant(cell);
+            setFoodLevel(Diet.foodValue(speciesId, plant.getSpeciesId()));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether this animal manages to look for food this step in the
+     * given weather. Default: always.
+     */
+    protected boolean canHunt(Weather weather)
+    {
+        return true;
+    }
+
+    /**
+     * Whether this animal stays put this step instead of feeding and
+     * moving (e.g. sleeping at night). Default: never.
+     */
+    protected boolean isResting(Field currentField, boolean isNight)
+    {
+        return false;
     }
 
     /**
@@ -255,7 +622,7 @@ public abstract class Animal
      */
     protected boolean canBreed()
     {
-        return age >= getBreedingAge();
+        return getAge() >= getBreedingAge();
     }
 
     /**
@@ -271,39 +638,86 @@ public abstract class Animal
     }
 
     /**
-     * Create a new young instance at the given location. Subclasses must implement.
+     * Create a new young instance, to be positioned when placed.
+     * Subclasses must implement.
      */
-    protected abstract Animal createYoung(Location location);
+    protected abstract Animal createYoung();
 
     /**
      * Give birth into available free locations in the next field state.
      * Requires an adjacent opposite-gender partner of the same species.
      */
-    protected void giveBirth(Field currentField, Field nextFieldState, java.util.List<Location> freeLocations)
+    protected void giveBirth(Field currentField, Field nextFieldState, FreeCells free)
+    {
+        placeYoung(nextFieldState, free, plannedBirths(currentField));
+    }
+
+    /**
+     * Decide how many young to produce this step, reading only the
+     * current field.
+     */
+    protected int plannedBirths(Field currentField)
     {
         if(requiresMate() && !hasOppositeGenderNeighbour(currentField)) {
-            return;
+            return 0;
         }
-        int births = breed();
-        if(births > 0) {
-            for (int b = 0; b < births && !freeLocations.isEmpty(); b++) {
-                Location loc = freeLocations.remove(0);
-                Animal young = createYoung(loc);
-                nextFieldState.placeAnimal(young, loc);
-            }
+        return breed();
+    }
+
+    /**
+     * Place up to the given number of young into the free cells, taking
+     * the cells used.
+     */
+    protected void placeYoung(Field nextFieldState, FreeCells free, int births)
+    {
+        for(int b = 0; b < births && !free.isEmpty(); b++) {
+            int there = free.take();
+            Animal young = EntityPool.current().young(this);
+            nextFieldState.placeAnimal(young, there);
+        }
+    }
+
+    /**
+     * Plan this step for the two-phase step model. Only the current
+     * field and this animal are read; nothing is changed, so animals
+     * may plan concurrently. Decisions are based on the state at the
+     * start of the step; ageing and hunger are applied at commit.
+     * @param currentField The current state of the field.
+     * @param isNight If its night or not
+     * @param weather The weather at the animal's cell
+     * @return The intent, or null if this animal is already dead.
+     */
+    public Intent plan(Field currentField, boolean isNight, Weather weather)
+    {
+        if(!isAlive()) {
+            return null;
+        }
+        int births = plannedBirths(currentField);
+        if(isResting(currentField, isNight)) {
+            return new Intent(this, -1, births, true);
         }
+        int food = canHunt(weather) ? chooseFood(currentField) : -1;
+        return new Intent(this, food, births, false);
     }
 
     @Override
     public String toString() {
-        String s = getClass().getSimpleName() + "{" +
-                "age=" + age +
-                ", alive=" + isAlive() +
-                ", location=" + getLocation();
+        // Built in one pass; the location is written field by field
+        // rather than through the record's own toString.
+        StringBuilder sb = new StringBuilder(64).append(getClass().getSimpleName())
+            .append("{age=").append(getAge())
+            .append(", alive=").append(isAlive())
+            .append(", location=");
+        Location location = getLocation();
+        if(location == null) {
+            sb.append("null");
+        }
+        else {
+            sb.append("Location[row=").append(location.row()).append(", col=").append(location.col()).append(']');
+        }
         if(usesHunger()) {
-            s += ", foodLevel=" + foodLevel;
+            sb.append(", foodLevel=").append(getFoodLevel());
         }
-        s += '}';
-        return s;
+        return sb.append('}').toString();
     }
 }
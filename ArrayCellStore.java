@@ -0,0 +1,40 @@
+import java.util.Arrays;
+
+/**
+ * A cell store backed by an array on the Java heap. This is the
+ * fastest store while the field fits comfortably in the heap.
+ *
+ * @param <T> The type of value stored.
+ */
+public class ArrayCellStore<T> implements CellStore<T>
+{
+    // Values indexed by cell.
+    private final Object[] values;
+
+    /**
+     * Create a store for the given number of cells.
+     */
+    public ArrayCellStore(int cells)
+    {
+        values = new Object[cells];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int cell)
+    {
+        return (T) values[cell];
+    }
+
+    @Override
+    public void set(int cell, T value)
+    {
+        values[cell] = value;
+    }
+
+    @Override
+    public void clear()
+    {
+        Arrays.fill(values, null);
+    }
+}
@@ -1,4 +1,3 @@
-import java.util.List;
 import java.util.Random;
 
 /**
@@ -11,46 +10,62 @@ public class Capybara extends Animal
     private static final int MAX_AGE = 80;
     private static final double BREEDING_PROBABILITY = 0.12;
     private static final int MAX_LITTER_SIZE = 1;
-    private static final int FERN_FOOD_VALUE = 12;
+    static final int FERN_FOOD_VALUE = 12;
     private static final Random rand = Randomizer.getRandom();
 
+    // Whether the capybara slept through its last act.
+    private boolean sleeping;
+
     public Capybara(boolean randomAge, Location location)
     {
-        super(location);
-        foodLevel = rand.nextInt(FERN_FOOD_VALUE) + 6;
+        this(randomAge, location, rand);
+    }
+
+    /**
+     * Create a capybara whose initial state is drawn from the given generator.
+     */
+    public Capybara(boolean randomAge, Location location, Random rand)
+    {
+        super(location, rand);
+        newborn(rand);
         if(randomAge) {
-            age = rand.nextInt(MAX_AGE);
+            setAge(rand.nextInt(MAX_AGE));
         }
     }
 
+    @Override
+    protected void newborn(Random rand)
+    {
+        setFoodLevel(rand.nextInt(FERN_FOOD_VALUE) + 6);
+        sleeping = false;
+    }
+
     @Override
     public void act(Field currentField, Field nextFieldState, boolean isNight, Weather weather)
     {
         incrementAge();
         incrementHunger();
         if(isAlive()) {
-            List<Location> freeLocations =
-                nextFieldState.getFreeAdjacentLocations(getLocation());
-            if(!freeLocations.isEmpty()) {
-                giveBirth(currentField, nextFieldState, freeLocations);
+            FreeCells free = FreeCells.around(nextFieldState, getCell());
+            if(!free.isEmpty()) {
+                giveBirth(currentField, nextFieldState, free);
             }
-            // Capybara sleeps at night only when no jaguar or harpy eagle is nearby
-            if(isNight && !isPredatorNearby(currentField)) {
+            sleeping = isResting(currentField, isNight);
+            if(sleeping) {
                 // Capybara stays in the same position when sleeping
-                nextFieldState.placeAnimal(this, getLocation());
+                nextFieldState.placeAnimal(this, getCell());
             }
             else {
-                Location nextLocation = findFood(currentField);
-                // Guard: food's current-field location may already be occupied in nextFieldState.
-                if(nextLocation != null && nextFieldState.getAnimalAt(nextLocation) != null) {
-                    nextLocation = freeLocations.isEmpty() ? null : freeLocations.remove(0);
+                int nextCell = findFood(currentField);
+                // Guard: food's current-field cell may already be occupied in nextFieldState.
+                if(nextCell >= 0 && nextFieldState.getAnimalAt(nextCell) != null) {
+                    nextCell = free.take();
                 }
-                if(nextLocation == null && !freeLocations.isEmpty()) {
-                    nextLocation = freeLocations.remove(0);
+                if(nextCell < 0) {
+                    nextCell = free.take();
                 }
-                if(nextLocation != null) {
-                    setLocation(nextLocation);
-                    nextFieldState.placeAnimal(this, nextLocation);
+                if(nextCell >= 0) {
+                                        nextFieldState.placeAnimal(this, nextCell);
                 } else {
                     setDead();
                 }
@@ -59,26 +74,27 @@ public class Capybara extends Animal
     }
 
     @Override
-    protected boolean requiresMate() { return true; }
+    protected boolean isResting(Field currentField, boolean isNight)
+    {
+        // Capybara sleeps at night only when no jaguar or harpy eagle is nearby
+        return isNight && !isPredatorNearby(currentField);
+    }
 
     @Override
-    protected int getGenderSearchRadius() { return 10; }
+    protected int dormantSteps(int stepsToDawn)
+    {
+        // A sleeping capybara sleeps until dawn unless a predator comes.
+        return sleeping ? stepsToDawn : 0;
+    }
 
     @Override
-    protected int getHungerThreshold() { return FERN_FOOD_VALUE / 2; }
+    protected boolean requiresMate() { return true; }
 
     @Override
-    public boolean isEdibleBy(Animal predator)
-    {
-        return predator instanceof Jaguar || predator instanceof HarpyEagle;
-    }
+    protected int getGenderSearchRadius() { return 10; }
 
     @Override
-    protected int getFoodValue(Class<?> preyClass)
-    {
-        if(preyClass == Fern.class) return FERN_FOOD_VALUE;
-        return 0;
-    }
+    protected int getHungerThreshold() { return FERN_FOOD_VALUE / 2; }
 
     /**
      * Check whether jaguar or harpy eagle is in adjacent location
@@ -87,9 +103,17 @@ public class Capybara extends Animal
      */
     private boolean isPredatorNearby(Field currentField)
     {
-        for (Location loc : currentField.getAdjacentLocations(getLocation())) {
-            Animal animal = currentField.getAnimalAt(loc);
-            if ((animal instanceof Jaguar || animal instanceof HarpyEagle) && animal.isAlive()) {
+        int here = getCell();
+        int predators = Diet.predatorMask(getSpeciesId());
+        if((currentField.getNeighbourMask(here) & predators) == 0) {
+            return false;
+        }
+        // One was nearby at the start of the step; check it is still alive.
+        int[] adjacent = adjacentBuffer();
+        int count = currentField.getAdjacentCells(here, adjacent);
+        for (int i = 0; i < count; i++) {
+            Animal animal = currentField.getAnimalAt(adjacent[i]);
+            if (animal != null && animal.isAlive() && (predators & 1 << animal.getSpeciesId()) != 0) {
                 return true;
             }
         }
@@ -99,6 +123,9 @@ public class Capybara extends Animal
     @Override
     public boolean usesHunger() { return true; }
 
+    @Override
+    public Species getSpecies() { return Species.CAPYBARA; }
+
     @Override
     public int getMaxAge() { return MAX_AGE; }
 
@@ -112,5 +139,8 @@ public class Capybara extends Animal
     protected int getMaxLitterSize() { return MAX_LITTER_SIZE; }
 
     @Override
-    protected Animal createYoung(Location location) { return new Capybara(false, location); }
+    protected Animal createYoung() { return new Capybara(false, null); }
+
+    @Override
+    protected Random getBirthRandom() { return rand; }
 }
@@ -0,0 +1,24 @@
+/**
+ * Storage for one layer of a field: at most one value per cell, where
+ * cells are numbered 0 to size - 1 (see Field.cellOf).
+ *
+ * @param <T> The type of value stored.
+ */
+public interface CellStore<T>
+{
+    /**
+     * Return the value at the given cell, or null if there is none.
+     */
+    T get(int cell);
+
+    /**
+     * Store a value at the given cell, replacing any value there.
+     * A null value empties the cell.
+     */
+    void set(int cell, T value);
+
+    /**
+     * Empty every cell.
+     */
+    void clear();
+}
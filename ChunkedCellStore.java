@@ -0,0 +1,118 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A cell store for large, sparsely populated fields. The grid is split
+ * into square chunks of 64 x 64 cells, and a chunk's array is allocated
+ * only while the chunk holds a value, so memory grows with the number
+ * of occupied chunks rather than with the area of the field. A chunk
+ * directory, with one entry per chunk, finds a cell's chunk in O(1).
+ *
+ * Emptied chunks are freed, except that clearing the store keeps as
+ * many spare chunks as were in use, ready for refilling it (the
+ * simulator clears and refills a field every step).
+ *
+ * @param <T> The type of value stored.
+ */
+public class ChunkedCellStore<T> implements CellStore<T>
+{
+    // Chunks are CHUNK_SIZE cells square.
+    private static final int CHUNK_SHIFT = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // The width of the field, to find a cell's row and column.
+    private final int width;
+    // The number of chunks across the field.
+    private final int chunkCols;
+    // The values of each chunk by chunk number, or null where it is empty.
+    private final Object[][] chunks;
+    // The number of values held in each chunk.
+    private final short[] counts;
+    // Emptied chunk arrays, ready to reuse.
+    private final List<Object[]> spares = new ArrayList<>();
+    // The number of chunks holding values.
+    private int chunksInUse;
+
+    /**
+     * Create a store for a field of the given size.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public ChunkedCellStore(int depth, int width)
+    {
+        this.width = width;
+        chunkCols = (width + CHUNK_MASK) >>> CHUNK_SHIFT;
+        int chunkRows = (depth + CHUNK_MASK) >>> CHUNK_SHIFT;
+        chunks = new Object[chunkRows * chunkCols][];
+        counts = new short[chunks.length];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int cell)
+    {
+        int row = cell / width;
+        int col = cell - row * width;
+        Object[] chunk = chunks[(row >>> CHUNK_SHIFT) * chunkCols + (col >>> CHUNK_SHIFT)];
+        return chunk == null ? null : (T) chunk[(row & CHUNK_MASK) << CHUNK_SHIFT | (col & CHUNK_MASK)];
+    }
+
+    @Override
+    public void set(int cell, T value)
+    {
+        int row = cell / width;
+        int col = cell - row * width;
+        int c = (row >>> CHUNK_SHIFT) * chunkCols + (col >>> CHUNK_SHIFT);
+        int offset = (row & CHUNK_MASK) << CHUNK_SHIFT | (col & CHUNK_MASK);
+        Object[] chunk = chunks[c];
+        if(value == null) {
+            if(chunk != null && chunk[offset] != null) {
+                chunk[offset] = null;
+                if(--counts[c] == 0) {
+                    chunks[c] = null;
+                    chunksInUse--;
+                }
+            }
+            return;
+        }
+        if(chunk == null) {
+            chunk = spares.isEmpty() ? new Object[CHUNK_SIZE * CHUNK_SIZE] : spares.remove(spares.size() - 1);
+            chunks[c] = chunk;
+            chunksInUse++;
+        }
+        if(chunk[offset] == null) {
+            counts[c]++;
+        }
+        chunk[offset] = value;
+    }
+
+    @Override
+    public void clear()
+    {
+        // Spares beyond those needed to refill as before are let go.
+        int keep = chunksInUse;
+        spares.subList(Math.min(keep, spares.size()), spares.size()).clear();
+        for(int c = 0; c < chunks.length && chunksInUse > 0; c++) {
+            Object[] chunk = chunks[c];
+            if(chunk != null) {
+                Arrays.fill(chunk, null);
+                if(spares.size() < keep) {
+                    spares.add(chunk);
+                }
+                chunks[c] = null;
+                counts[c] = 0;
+                chunksInUse--;
+            }
+        }
+    }
+
+    /**
+     * Return the number of chunks holding values.
+     */
+    public int getChunksInUse()
+    {
+        return chunksInUse;
+    }
+}
@@ -0,0 +1,226 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Aggregates the density of each species over square blocks of the
+ * field at several resolutions (by default 8x8, 32x32 and 128x128
+ * cells), so that dashboards can zoom in and out without full-resolution
+ * frames.
+ *
+ * Every few steps the finest level is counted in a single pass over the
+ * population, and each coarser level is summed from the level below it.
+ * Counts are held as 16-bit unsigned values, so a block may hold at most
+ * 65535 cells. Blocks at the bottom and right edges may be partial.
+ */
+public class DensityPyramid implements StepListener
+{
+    // Identifies a density pyramid file ("DPY1").
+    private static final int MAGIC = 0x44505931;
+    // The largest number of cells in a block.
+    private static final int MAX_BLOCK_CELLS = 0xFFFF;
+
+    /**
+     * One resolution of a frame.
+     * @param blockSize The side of each block in cells.
+     * @param rows The number of rows of blocks.
+     * @param cols The number of columns of blocks.
+     * @param counts The count of each species in each block, indexed by
+     *               (species id * rows + block row) * cols + block col.
+     */
+    public record Level(int blockSize, int rows, int cols, char[] counts)
+    {
+        /**
+         * Return the count of a species in a block.
+         */
+        public int count(Species species, int blockRow, int blockCol)
+        {
+            return counts[(species.getId() * rows + blockRow) * cols + blockCol];
+        }
+    }
+
+    /**
+     * The pyramid at one step, finest level first.
+     */
+    public record Frame(int step, Level[] levels)
+    {
+    }
+
+    // The side of the blocks at each level, finest first.
+    private final int[] blockSizes;
+    // How often, in steps, a frame is taken.
+    private final int interval;
+    // Receives each frame.
+    private final Consumer<Frame> sink;
+    // The most recent frame, or null before the first.
+    private Frame latest;
+
+    /**
+     * Create a pyramid of 8x8, 32x32 and 128x128 blocks, taken every
+     * given number of steps.
+     * @param interval How often, in steps, a frame is taken.
+     * @param sink Receives each frame.
+     */
+    public DensityPyramid(int interval, Consumer<Frame> sink)
+    {
+        this(new int[] { 8, 32, 128 }, interval, sink);
+    }
+
+    /**
+     * Create a pyramid.
+     * @param blockSizes The side of the blocks at each level, finest
+     *                   first; each must be a multiple of the one before.
+     * @param interval How often, in steps, a frame is taken.
+     * @param sink Receives each frame.
+     */
+    public DensityPyramid(int[] blockSizes, int interval, Consumer<Frame> sink)
+    {
+        for(int i = 0; i < blockSizes.length; i++) {
+            if((long) blockSizes[i] * blockSizes[i] > MAX_BLOCK_CELLS
+                    || (i > 0 && blockSizes[i] % blockSizes[i - 1] != 0)) {
+                throw new IllegalArgumentException("Bad block size " + blockSizes[i]);
+            }
+        }
+        this.blockSizes = blockSizes.clone();
+        this.interval = interval;
+        this.sink = sink;
+    }
+
+    @Override
+    public void stepCompleted(int step, Field field)
+    {
+        if(step % interval == 0) {
+            latest = aggregate(step, field);
+            sink.accept(latest);
+        }
+    }
+
+    /**
+     * Return the most recent frame, or null if none has been taken.
+     */
+    public Frame getLatest()
+    {
+        return latest;
+    }
+
+    /**
+     * Count the population of the field into a new frame.
+     */
+    public Frame aggregate(int step, Field field)
+    {
+        Level[] levels = new Level[blockSizes.length];
+        Level finest = level(blockSizes[0], field.getDepth(), field.getWidth());
+        int size = finest.blockSize();
+        char[] counts = finest.counts();
+        for(Animal anAnimal : field.getAnimals()) {
+            if(anAnimal.isAlive()) {
+                Location location = anAnimal.getLocation();
+                counts[(anAnimal.getSpeciesId() * finest.rows() + location.row() / size) * finest.cols()
+                       + location.col() / size]++;
+            }
+        }
+        for(Plant aPlant : field.getPlants()) {
+            if(aPlant.isAlive()) {
+                Location location = aPlant.getLocation();
+                counts[(aPlant.getSpeciesId() * finest.rows() + location.row() / size) * finest.cols()
+                       + location.col() / size]++;
+            }
+        }
+        levels[0] = finest;
+        for(int i = 1; i < levels.length; i++) {
+            levels[i] = coarsen(levels[i - 1], blockSizes[i], field.getDepth(), field.getWidth());
+        }
+        return new Frame(step, levels);
+    }
+
+    /**
+     * Return an empty level of the given block size for the field.
+     */
+    private static Level level(int blockSize, int depth, int width)
+    {
+        int rows = (depth + blockSize - 1) / blockSize;
+        int cols = (width + blockSize - 1) / blockSize;
+        return new Level(blockSize, rows, cols, new char[Species.COUNT * rows * cols]);
+    }
+
+    /**
+     * Sum the blocks of a level into the larger blocks of a new level.
+     */
+    private static Level coarsen(Level fine, int blockSize, int depth, int width)
+    {
+        Level coarse = level(blockSize, depth, width);
+        int factor = blockSize / fine.blockSize();
+        char[] from = fine.counts();
+        char[] to = coarse.counts();
+        for(int s = 0; s < Species.COUNT; s++) {
+            for(int row = 0; row < fine.rows(); row++) {
+                int fromBase = (s * fine.rows() + row) * fine.cols();
+                int toBase = (s * coarse.rows() + row / factor) * coarse.cols();
+                for(int col = 0; col < fine.cols(); col++) {
+                    to[toBase + col / factor] += from[fromBase + col];
+                }
+            }
+        }
+        return coarse;
+    }
+
+    /**
+     * Return a sink that appends each frame to a file. The file starts
+     * with a magic number; each frame is the step and number of levels,
+     * then for each level its block size, rows, cols and counts, as
+     * big-endian values (counts as unsigned shorts). The file is
+     * complete once the writer is closed.
+     * @param file The file to write, replacing any existing one.
+     */
+    public static Writer writer(Path file) throws IOException
+    {
+        return new Writer(file);
+    }
+
+    /**
+     * Appends frames to a file.
+     */
+    public static class Writer implements Consumer<Frame>, Closeable
+    {
+        private final DataOutputStream out;
+
+        private Writer(Path file) throws IOException
+        {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+            out.writeInt(MAGIC);
+            out.flush();
+        }
+
+        @Override
+        public void accept(Frame frame)
+        {
+            try {
+                out.writeInt(frame.step());
+                out.writeInt(frame.levels().length);
+                for(Level level : frame.levels()) {
+                    out.writeInt(level.blockSize());
+                    out.writeInt(level.rows());
+                    out.writeInt(level.cols());
+                    for(char count : level.counts()) {
+                        out.writeChar(count);
+                    }
+                }
+                out.flush();
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Dumps a sample of the live population every few steps, for inspecting
+ * large runs. Entities are written into one reusable buffer as compact
+ * binary records, and nothing is formatted as text unless a dump is
+ * read back with describe, so a dump costs little more than a pass over
+ * the sampled entities.
+ *
+ * The sample can be narrowed to every Nth entity, to some species and
+ * to a rectangle of the field; entities are tested against the cheapest
+ * filters first.
+ *
+ * A dump is the step, the field's width and the number of records (ints),
+ * then for each record the species id and flags (bytes: bit 0 set for a
+ * plant, bit 1 for a female), the cell (int), and the age and food level
+ * (unsigned shorts, capped), all big-endian. A dump holds as many records
+ * as fit in the buffer.
+ */
+public class Diagnostics implements StepListener
+{
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_SIZE = 10;
+    private static final int PLANT = 1, FEMALE = 2;
+
+    // Dump after every this many steps.
+    private final int interval;
+    private final ByteBuffer buffer;
+    private final Consumer<ByteBuffer> sink;
+    // Record every stride-th entity that passes the other filters.
+    private int stride = 1;
+    // The species recorded, as bits (1 << species id).
+    private int speciesMask = (1 << Species.COUNT) - 1;
+    // The rectangle recorded, or null for the whole field.
+    private int[] region;
+    // Entities passing the filters so far in this dump, to pick every
+    // stride-th.
+    private long passed;
+
+    /**
+     * Create diagnostics dumping every few steps.
+     * @param interval Dump after every this many steps.
+     * @param capacity The size of the buffer in bytes.
+     * @param sink Receives each dump, readable until it returns.
+     */
+    public Diagnostics(int interval, int capacity, Consumer<ByteBuffer> sink)
+    {
+        this.interval = interval;
+        this.buffer = ByteBuffer.allocate(Math.max(capacity, HEADER_SIZE));
+        this.sink = sink;
+    }
+
+    /**
+     * Record only every stride-th entity passing the other filters.
+     */
+    public void setStride(int stride)
+    {
+        this.stride = Math.max(1, stride);
+    }
+
+    /**
+     * Record only the given species.
+     */
+    public void setSpecies(Species... species)
+    {
+        speciesMask = 0;
+        for(Species s : species) {
+            speciesMask |= 1 << s.getId();
+        }
+    }
+
+    /**
+     * Record only the given rectangle of the field.
+     * @param fromRow The first row.
+     * @param fromCol The first column.
+     * @param toRow The row after the last.
+     * @param toCol The column after the last.
+     */
+    public void setRegion(int fromRow, int fromCol, int toRow, int toCol)
+    {
+        region = new int[] { fromRow, fromCol, toRow, toCol };
+    }
+
+    @Override
+    public void stepCompleted(int step, Field field)
+    {
+        if(step % interval != 0) {
+            return;
+        }
+        // Every dump samples from the same phase of the stride.
+        passed = 0;
+        buffer.clear();
+        buffer.putInt(step).putInt(field.getWidth()).putInt(0);
+        int count = 0;
+        for(Animal anAnimal : field.getAnimals()) {
+            if(anAnimal.isAlive() && sampled(anAnimal.getSpeciesId(), anAnimal.getLocation())) {
+                if(buffer.remaining() < RECORD_SIZE) {
+                    break;
+                }
+                int flags = anAnimal.getGender() == Animal.Gender.FEMALE ? FEMALE : 0;
+                put(anAnimal.getSpeciesId(), flags, field.indexOf(anAnimal.getCell()),
+                    anAnimal.getAge(), anAnimal.getFoodLevel());
+                count++;
+            }
+        }
+        for(Plant aPlant : field.getPlants()) {
+            if(aPlant.isAlive() && sampled(aPlant.getSpeciesId(), aPlant.getLocation())) {
+                if(buffer.remaining() < RECORD_SIZE) {
+                    break;
+                }
+                put(aPlant.getSpeciesId(), PLANT, field.indexOf(field.cellOf(aPlant.getLocation())), aPlant.getAge(), 0);
+                count++;
+            }
+        }
+        buffer.putInt(8, count);
+        buffer.flip();
+        sink.accept(buffer.asReadOnlyBuffer());
+    }
+
+    /**
+     * Return whether an entity passing the filters is to be recorded.
+     */
+    private boolean sampled(int speciesId, Location location)
+    {
+        if((speciesMask & 1 << speciesId) == 0) {
+            return false;
+        }
+        if(region != null && (location.row() < region[0] || location.col() < region[1]
+                              || location.row() >= region[2] || location.col() >= region[3])) {
+            return false;
+        }
+        return passed++ % stride == 0;
+    }
+
+    private void put(int speciesId, int flags, int cell, int age, int foodLevel)
+    {
+        buffer.put((byte) speciesId).put((byte) flags).putInt(cell)
+              .putChar((char) Math.min(age, Character.MAX_VALUE))
+              .putChar((char) Math.max(0, Math.min(foodLevel, Character.MAX_VALUE)));
+    }
+
+    /**
+     * Describe each record of a dump, one line per entity.
+     */
+    public static List<String> describe(ByteBuffer dump)
+    {
+        ByteBuffer in = dump.duplicate();
+        int step = in.getInt();
+        int width = in.getInt();
+        int count = in.getInt();
+        List<String> lines = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            Species species = Species.byId(in.get());
+            int flags = in.get();
+            int cell = in.getInt();
+            int age = in.getChar();
+            int foodLevel = in.getChar();
+            StringBuilder sb = new StringBuilder().append(step).append(' ').append(species.getLabel())
+                .append(" (").append(cell / width).append(',').append(cell % width).append(") age ").append(age);
+            if((flags & PLANT) == 0) {
+                sb.append(" food ").append(foodLevel).append((flags & FEMALE) != 0 ? " female" : " male");
+            }
+            lines.add(sb.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Return a sink appending each dump to a file, preceded by its length
+     * as an int. The file is complete once the writer is closed.
+     * @param file The file to write, replacing any existing one.
+     */
+    public static Writer writer(Path file) throws IOException
+    {
+        return new Writer(file);
+    }
+
+    /**
+     * Appends dumps to a file.
+     */
+    public static class Writer implements Consumer<ByteBuffer>, Closeable
+    {
+        private final FileChannel channel;
+        private final ByteBuffer length = ByteBuffer.allocate(4);
+
+        private Writer(Path file) throws IOException
+        {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                       StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        @Override
+        public void accept(ByteBuffer dump)
+        {
+            try {
+                length.clear();
+                length.putInt(dump.remaining()).flip();
+                ByteBuffer[] buffers = { length, dump };
+                do {
+                    channel.write(buffers);
+                } while(dump.hasRemaining());
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.Arrays;
+
+/**
+ * The predator x prey diet matrix. For every pair of species it records
+ * whether the first eats the second, the food value gained, and the food
+ * level below which the predator is willing to eat it, so that the
+ * feeding check is two array loads.
+ */
+public class Diet
+{
+    // Marks a pair where the predator never eats the prey.
+    private static final int NEVER = Integer.MIN_VALUE;
+    // Marks a pair where the predator eats the prey whenever it feeds.
+    private static final int ALWAYS = Integer.MAX_VALUE;
+
+    // The predator eats the prey only while its food level is below this.
+    private static final int[] hungerLimit = new int[Species.COUNT * Species.COUNT];
+    // The food level the predator has after eating the prey.
+    private static final int[] foodValue = new int[Species.COUNT * Species.COUNT];
+    // For each species, a bit (1 << species id) for each of its prey,
+    // and for each of its predators.
+    private static final int[] preyMask = new int[Species.COUNT];
+    private static final int[] predatorMask = new int[Species.COUNT];
+
+    static {
+        Arrays.fill(hungerLimit, NEVER);
+        allow(Species.CAPYBARA, Species.FERN, Capybara.FERN_FOOD_VALUE, ALWAYS);
+        allow(Species.HOWLER_MONKEY, Species.FRUIT_TREE, HowlerMonkey.FRUIT_FOOD_VALUE, ALWAYS);
+        allow(Species.JAGUAR, Species.CAPYBARA, Jaguar.PREY_FOOD_VALUE, ALWAYS);
+        // Harpy eagles hunt howler monkeys as primary prey, and capybaras
+        // only when nearly starving, competing with jaguars.
+        allow(Species.HARPY_EAGLE, Species.HOWLER_MONKEY, HarpyEagle.PREY_FOOD_VALUE, ALWAYS);
+        allow(Species.HARPY_EAGLE, Species.CAPYBARA, HarpyEagle.PREY_FOOD_VALUE,
+              HarpyEagle.PREY_FOOD_VALUE / 3);
+    }
+
+    /**
+     * Record that the predator eats the prey.
+     * @param limit The predator eats only while its food level is below this.
+     */
+    private static void allow(Species predator, Species prey, int value, int limit)
+    {
+        int pair = predator.getId() * Species.COUNT + prey.getId();
+        hungerLimit[pair] = limit;
+        foodValue[pair] = value;
+        preyMask[predator.getId()] |= 1 << prey.getId();
+        predatorMask[prey.getId()] |= 1 << predator.getId();
+    }
+
+    /**
+     * Return whether a predator with the given food level eats the prey.
+     * Plant maturity is checked separately.
+     */
+    public static boolean eats(int predator, int prey, int foodLevel)
+    {
+        return foodLevel < hungerLimit[predator * Species.COUNT + prey];
+    }
+
+    /**
+     * Return whether the predator ever eats the prey.
+     */
+    public static boolean isPrey(int predator, int prey)
+    {
+        return hungerLimit[predator * Species.COUNT + prey] != NEVER;
+    }
+
+    /**
+     * Return a bit (1 << species id) for each species the predator ever
+     * eats, to test against Field.getNeighbourMask.
+     */
+    public static int preyMask(int predator)
+    {
+        return preyMask[predator];
+    }
+
+    /**
+     * Return a bit (1 << species id) for each species that ever eats the
+     * prey, to test against Field.getNeighbourMask.
+     */
+    public static int predatorMask(int prey)
+    {
+        return predatorMask[prey];
+    }
+
+    /**
+     * Return the food level a predator has after eating the prey.
+     */
+    public static int foodValue(int predator, int prey)
+    {
+        return foodValue[predator * Species.COUNT + prey];
+    }
+}
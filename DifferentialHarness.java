@@ -0,0 +1,407 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Checks that an alternate engine configuration (step model, scheduling,
+ * pooling, storage) simulates the same ecology as the reference one:
+ * the sequential model on array storage with every entity acting.
+ *
+ * Two checks are made:
+ *  - lockstep: both engines run from the same seed (see Randomizer.seed)
+ *    and must agree on a digest of the full grid state (species, age,
+ *    food level and gender of everything in every cell) after every
+ *    step. The first step at which they part is reported with the
+ *    counts and the first differing cells.
+ *  - statistical: each engine is run from many other seeds and the
+ *    distributions of every species' extinction step are compared with
+ *    the two-sample Kolmogorov-Smirnov test. This is what engines that
+ *    legitimately draw random numbers in a different order must pass.
+ *    It is run for engines that match in lockstep too, since three
+ *    seeds do not cover every path; an engine that is truly identical
+ *    gives the same extinction steps and so passes at no risk.
+ *
+ * An engine passes if it passes the statistical check. Engines listed
+ * in EXPECTED_TO_DIFFER model the ecology differently on purpose; when
+ * they fail they are reported as known failures, with the reason, and
+ * do not fail the run. When they pass, that is reported too, so the
+ * entry can be reviewed.
+ *
+ * Usage: java DifferentialHarness [steps] [seeds] [engine...]
+ * where each engine is a '+'-separated list of two-phase, scheduled,
+ * fast-forward, pooled, off-heap-index, chunked, halo, counter-rng,
+ * row-major, morton and shuffled; the first seven alone are checked by
+ * default. The exit status is 1 if any engine fails other than a known
+ * failure.
+ */
+public class DifferentialHarness
+{
+    // The size of the field used.
+    private static final int DEPTH = 80;
+    private static final int WIDTH = 120;
+    // The number of seeds run in lockstep.
+    private static final int LOCKSTEP_SEEDS = 3;
+    // The most differing cells reported.
+    private static final int MAX_CELLS_REPORTED = 5;
+    // The significance level of the Kolmogorov-Smirnov test.
+    private static final double ALPHA = 0.05;
+    // The engine options that change the model, and how. An engine with
+    // any of them may fail the statistical check.
+    private static final Map<String, String> EXPECTED_TO_DIFFER = Map.of(
+        "two-phase", "animals plan against the state at the start of the step and conflicting plans"
+                     + " are settled at commit, which shifts the capybaras' extinction times");
+
+    /**
+     * An engine configuration.
+     * @param name A name for reports.
+     * @param storage How the field is stored.
+     * @param options Applied to each new simulator.
+     */
+    public record Engine(String name, FieldStorage storage, Consumer<Simulator> options)
+    {
+        /** The reference engine. */
+        public static final Engine REFERENCE = new Engine("reference", FieldStorage.ARRAY, sim -> { });
+
+        /**
+         * Return the engine with the given '+'-separated options.
+         */
+        public static Engine parse(String name)
+        {
+            FieldStorage storage = FieldStorage.ARRAY;
+            Consumer<Simulator> options = sim -> { };
+            for(String option : name.split("\\+")) {
+                switch(option) {
+                    case "two-phase" -> options = options.andThen(sim -> sim.setStepModel(StepModel.TWO_PHASE));
+                    case "row-major" -> options = options.andThen(sim -> sim.setUpdateOrder(UpdateOrder.ROW_MAJOR));
+                    case "morton" -> options = options.andThen(sim -> sim.setUpdateOrder(UpdateOrder.MORTON));
+                    case "shuffled" -> options = options.andThen(sim -> sim.setUpdateOrder(UpdateOrder.SHUFFLED));
+                    case "counter-rng" -> options = options.andThen(sim -> sim.setCounterRandom(true));
+                    case "scheduled" -> options = options.andThen(sim -> sim.setScheduled(true));
+                    case "fast-forward" -> options = options.andThen(sim -> sim.setFastForward(true));
+                    case "pooled" -> options = options.andThen(sim -> sim.setPooling(true, true));
+                    case "off-heap-index" -> storage = FieldStorage.OFF_HEAP_INDEX;
+                    case "chunked" -> storage = FieldStorage.CHUNKED;
+                    case "halo" -> options = options.andThen(sim -> sim.setTopology(Topology.HALO));
+                    default -> throw new IllegalArgumentException("Unknown engine option " + option);
+                }
+            }
+            return new Engine(name, storage, options);
+        }
+    }
+
+    // The number of steps run.
+    private final int steps;
+    // The extinction steps of each engine from each seed run so far, as
+    // every engine is compared with the same reference runs.
+    private final Map<String, int[]> extinctions = new HashMap<>();
+
+    /**
+     * Compare the engines on the command line with the reference.
+     */
+    public static void main(String[] args)
+    {
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int seeds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        List<String> names = args.length > 2 ? Arrays.asList(args).subList(2, args.length)
+                                             : List.of("two-phase", "scheduled", "fast-forward", "pooled",
+                                                       "off-heap-index", "chunked", "halo");
+        DifferentialHarness harness = new DifferentialHarness(steps);
+        List<String> failed = new ArrayList<>();
+        List<String> knownFailures = new ArrayList<>();
+        for(String name : names) {
+            Engine engine = Engine.parse(name);
+            String divergence = harness.lockstep(Engine.REFERENCE, engine, LOCKSTEP_SEEDS);
+            System.out.println(name + ": " + (divergence == null
+                ? "identical to the reference over " + LOCKSTEP_SEEDS + " seeds"
+                : divergence));
+            String difference = harness.compareExtinctions(Engine.REFERENCE, engine, seeds);
+            String expected = expectedDifference(name);
+            if(difference == null) {
+                System.out.println(name + ": extinction times consistent with the reference over " + seeds + " seeds"
+                                   + (expected != null ? " (though expected to differ)" : ""));
+            }
+            else if(expected != null) {
+                System.out.println(name + ": KNOWN FAILURE: " + difference + " (expected: " + expected + ")");
+                knownFailures.add(name);
+            }
+            else {
+                System.out.println(name + ": FAILED: " + difference);
+                failed.add(name);
+            }
+        }
+        System.out.println((names.size() - failed.size() - knownFailures.size()) + " passed, "
+                           + knownFailures.size() + " known failures " + knownFailures + ", "
+                           + failed.size() + " failed " + failed);
+        if(!failed.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Return why the engine is expected to differ from the reference, or
+     * null if it should not.
+     */
+    private static String expectedDifference(String name)
+    {
+        for(String option : name.split("\\+")) {
+            if(EXPECTED_TO_DIFFER.containsKey(option)) {
+                return EXPECTED_TO_DIFFER.get(option);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Create a harness running each simulation for the given steps.
+     */
+    public DifferentialHarness(int steps)
+    {
+        this.steps = steps;
+    }
+
+    /**
+     * Run both engines from each of the first seeds and compare them
+     * after every step.
+     * @return A description of the first divergence, or null if none.
+     */
+    public String lockstep(Engine reference, Engine candidate, int seeds)
+    {
+        for(long seed = 1; seed <= seeds; seed++) {
+            List<Long> expected = digests(reference, seed);
+            List<Long> actual = digests(candidate, seed);
+            int length = Math.min(expected.size(), actual.size());
+            for(int i = 0; i < length; i++) {
+                if(!expected.get(i).equals(actual.get(i))) {
+                    int step = i + 1;
+                    return "diverges from seed " + seed + " at step " + step + ":"
+                           + describeDifference(reference, candidate, seed, step);
+                }
+            }
+            if(expected.size() != actual.size()) {
+                return "seed " + seed + " runs for " + actual.size() + " steps instead of "
+                       + expected.size();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Run both engines from many seeds and compare the distributions of
+     * the step at which each species died out.
+     * @return A description of the species whose distributions differ
+     *         significantly, or null if none do.
+     */
+    public String compareExtinctions(Engine reference, Engine candidate, int seeds)
+    {
+        int[][] expected = new int[Species.COUNT][seeds];
+        int[][] actual = new int[Species.COUNT][seeds];
+        for(int i = 0; i < seeds; i++) {
+            // Seeds apart from those used in lockstep.
+            long seed = 1000 + i;
+            int[] referenceSteps = extinctionSteps(reference, seed);
+            int[] candidateSteps = extinctionSteps(candidate, seed);
+            for(int s = 0; s < Species.COUNT; s++) {
+                expected[s][i] = referenceSteps[s];
+                actual[s][i] = candidateSteps[s];
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for(Species species : Species.values()) {
+            int s = species.getId();
+            double d = ksStatistic(expected[s], actual[s]);
+            double p = ksProbability(d, seeds, seeds);
+            if(p < ALPHA) {
+                sb.append(sb.length() > 0 ? "; " : "").append(species.getLabel())
+                  .append(String.format(" extinction times differ (D=%.2f, p=%.3f)", d, p));
+            }
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    /**
+     * Return a new simulator for the engine, seeded for the run.
+     */
+    private static Simulator start(Engine engine, long seed)
+    {
+        Randomizer.seed(seed);
+        Simulator sim = Simulator.unpopulated(DEPTH, WIDTH, true, engine.storage());
+        sim.setQuiet(true);
+        engine.options().accept(sim);
+        sim.reset(seed);
+        return sim;
+    }
+
+    /**
+     * Return the digest of the grid after every step.
+     */
+    private List<Long> digests(Engine engine, long seed)
+    {
+        Simulator sim = start(engine, seed);
+        List<Long> digests = new ArrayList<>();
+        sim.addStepListener((step, field) -> digests.add(digest(field)));
+        sim.simulate(steps);
+        return digests;
+    }
+
+    /**
+     * Describe how the engines differ after the given step.
+     */
+    private String describeDifference(Engine reference, Engine candidate, long seed, int step)
+    {
+        String[] expected = cellsAt(reference, seed, step);
+        String[] actual = cellsAt(candidate, seed, step);
+        StringBuilder sb = new StringBuilder();
+        int reported = 0;
+        for(int cell = 0; cell < expected.length && reported < MAX_CELLS_REPORTED; cell++) {
+            if(!expected[cell].equals(actual[cell])) {
+                sb.append(String.format("%n  (%d,%d) %s vs %s", cell / WIDTH, cell % WIDTH,
+                                        expected[cell], actual[cell]));
+                reported++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return a description of every cell after the given step.
+     */
+    private String[] cellsAt(Engine engine, long seed, int step)
+    {
+        Simulator sim = start(engine, seed);
+        String[] cells = new String[DEPTH * WIDTH];
+        sim.addStepListener((at, field) -> {
+            if(at == step) {
+                for(int index = 0; index < cells.length; index++) {
+                    int cell = field.cellOf(index / WIDTH, index % WIDTH);
+                    cells[index] = describe(field.getAnimalAt(cell)) + "/" + describe(field.getPlantAt(cell));
+                }
+            }
+        });
+        sim.simulate(step);
+        return cells;
+    }
+
+    private static String describe(Animal animal)
+    {
+        if(animal == null || !animal.isAlive()) {
+            return "-";
+        }
+        return animal.getSpecies().getLabel() + " age " + animal.getAge() + " food " + animal.getFoodLevel()
+               + " " + animal.getGender();
+    }
+
+    private static String describe(Plant plant)
+    {
+        if(plant == null || !plant.isAlive()) {
+            return "-";
+        }
+        return plant.getSpecies().getLabel() + " age " + plant.getAge();
+    }
+
+    /**
+     * Return a digest of the live contents of every cell.
+     */
+    private static long digest(Field field)
+    {
+        long digest = 1;
+        int cells = field.getDepth() * field.getWidth();
+        for(int index = 0; index < cells; index++) {
+            int cell = field.cellOf(index / field.getWidth(), index % field.getWidth());
+            Animal animal = field.getAnimalAt(cell);
+            if(animal != null && animal.isAlive()) {
+                digest = 31 * digest + index;
+                digest = 31 * digest + animal.getSpeciesId();
+                digest = 31 * digest + animal.getAge();
+                digest = 31 * digest + animal.getFoodLevel();
+                digest = 31 * digest + animal.getGender().ordinal();
+            }
+            Plant plant = field.getPlantAt(cell);
+            if(plant != null && plant.isAlive()) {
+                digest = 31 * digest + ~index;
+                digest = 31 * digest + plant.getSpeciesId();
+                digest = 31 * digest + plant.getAge();
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Return the step at which each species died out, or the number of
+     * steps plus one if it survived (or was never present).
+     */
+    private int[] extinctionSteps(Engine engine, long seed)
+    {
+        return extinctions.computeIfAbsent(engine.name() + "@" + seed, key -> runToExtinction(engine, seed));
+    }
+
+    /**
+     * Run the engine from the seed and return its extinction steps.
+     */
+    private int[] runToExtinction(Engine engine, long seed)
+    {
+        Simulator sim = start(engine, seed);
+        int[] extinct = new int[Species.COUNT];
+        Arrays.fill(extinct, steps + 1);
+        sim.addStepListener((step, field) -> {
+            int[] counts = field.getSpeciesCounts();
+            for(int s = 0; s < Species.COUNT; s++) {
+                if(counts[s] == 0 && extinct[s] > step) {
+                    extinct[s] = step;
+                }
+            }
+        });
+        sim.simulate(steps);
+        return extinct;
+    }
+
+    /**
+     * Return the largest distance between the empirical distribution
+     * functions of the two samples.
+     */
+    static double ksStatistic(int[] a, int[] b)
+    {
+        int[] x = a.clone();
+        int[] y = b.clone();
+        Arrays.sort(x);
+        Arrays.sort(y);
+        int i = 0;
+        int j = 0;
+        double d = 0;
+        while(i < x.length && j < y.length) {
+            int value = Math.min(x[i], y[j]);
+            while(i < x.length && x[i] == value) {
+                i++;
+            }
+            while(j < y.length && y[j] == value) {
+                j++;
+            }
+            d = Math.max(d, Math.abs((double) i / x.length - (double) j / y.length));
+        }
+        return d;
+    }
+
+    /**
+     * Return the asymptotic probability of a distance at least d between
+     * samples of the given sizes drawn from the same distribution.
+     */
+    static double ksProbability(double d, int n, int m)
+    {
+        double en = Math.sqrt((double) n * m / (n + m));
+        double lambda = (en + 0.12 + 0.11 / en) * d;
+        if(lambda < 0.2) {
+            return 1;
+        }
+        double sum = 0;
+        for(int k = 1; k <= 100; k++) {
+            double term = 2 * (k % 2 == 1 ? 1 : -1) * Math.exp(-2 * k * k * lambda * lambda);
+            sum += term;
+            if(Math.abs(term) < 1e-10) {
+                break;
+            }
+        }
+        return Math.max(0, Math.min(1, sum));
+    }
+}
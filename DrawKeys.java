@@ -0,0 +1,86 @@
+/**
+ * The keys one simulation's random draws are made from in counter-based
+ * mode (see Randomizer). Before an actor runs, its thread is keyed with
+ * a hash of this simulation's seed, the step, the kind of actor and the
+ * actor's cell, so simulations running side by side never share keys.
+ */
+public class DrawKeys
+{
+    /** The kinds of actor that keyed draws are made for. */
+    public enum Stream { SETUP, WEATHER, ANIMAL, PLAN, COMMIT, PLANT, ORDER }
+
+    // Whether this simulation's draws are keyed.
+    private boolean counterBased;
+    // The seed and the step that keys are derived from. Set on the
+    // simulation's thread between steps, so seen by the threads it forks.
+    private long seed;
+    private int step;
+
+    /**
+     * Choose whether this simulation's draws are keyed.
+     * @param counterBased true for counter-based draws.
+     */
+    public void setCounterBased(boolean counterBased)
+    {
+        this.counterBased = counterBased;
+    }
+
+    public boolean isCounterBased()
+    {
+        return counterBased;
+    }
+
+    /**
+     * Set the seed that keys are made from.
+     */
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Set the step that keys are made for from now on.
+     */
+    public void beginStep(int step)
+    {
+        this.step = step;
+    }
+
+    /**
+     * In counter-based mode, key the current thread's draws to an actor
+     * in the current step, starting its count of values drawn from zero;
+     * otherwise make sure the thread's draws are not keyed.
+     * @param stream The kind of actor.
+     * @param cell The actor's cell, or any number telling apart the
+     *             actors of the stream.
+     */
+    public void key(Stream stream, int cell)
+    {
+        if(counterBased) {
+            Randomizer.keyThread(Randomizer.keyFor(seed, step, stream.ordinal(), cell));
+        }
+        else {
+            Randomizer.unkeyThread();
+        }
+    }
+
+    /**
+     * Key the current thread's draws to an actor handled on a worker
+     * thread, whatever the mode: the order the workers run in must not
+     * decide the draws, so parallel phases are always keyed.
+     * @param stream The kind of actor.
+     * @param cell The actor's cell.
+     */
+    public void keyParallel(Stream stream, int cell)
+    {
+        Randomizer.keyThread(Randomizer.keyFor(seed, step, stream.ordinal(), cell));
+    }
+
+    /**
+     * Stop keying the current thread's draws.
+     */
+    public void release()
+    {
+        Randomizer.unkeyThread();
+    }
+}
@@ -0,0 +1,119 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Encode animals and plants as compact records so that they can be sent
+ * between processes, and decode them again into a field.
+ * 
+ * Each record holds the species, the global row and column, the age,
+ * the food level and the gender. Plants record a food level of zero.
+ */
+public class EntityCodec
+{
+    // Only used to construct decoded entities; their state is then restored.
+    private static final Random rand = Randomizer.getRandom();
+
+    // The records encoded so far.
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    // The number of records encoded so far.
+    private int count;
+
+    /**
+     * Add an animal to the message.
+     * @param animal The animal.
+     * @param row The animal's global row.
+     * @param col The animal's column.
+     */
+    public void add(Animal animal, int row, int col) throws IOException
+    {
+        out.writeByte(animal.getSpeciesId());
+        out.writeInt(row);
+        out.writeInt(col);
+        out.writeInt(animal.getAge());
+        out.writeInt(animal.getFoodLevel());
+        out.writeByte(animal.getGender().ordinal());
+        count++;
+    }
+
+    /**
+     * Add a plant to the message.
+     * @param plant The plant.
+     * @param row The plant's global row.
+     * @param col The plant's column.
+     */
+    public void add(Plant plant, int row, int col) throws IOException
+    {
+        out.writeByte(plant.getSpeciesId());
+        out.writeInt(row);
+        out.writeInt(col);
+        out.writeInt(plant.getAge());
+        out.writeInt(0);
+        out.writeByte(0);
+        count++;
+    }
+
+    /**
+     * Return the encoded message and start a new, empty one.
+     */
+    public byte[] finish() throws IOException
+    {
+        out.flush();
+        byte[] records = bytes.toByteArray();
+        byte[] message = ByteBuffer.allocate(4 + records.length)
+            .putInt(count).put(records).array();
+        bytes.reset();
+        count = 0;
+        return message;
+    }
+
+    /**
+     * Receives the entities decoded from a message.
+     */
+    public interface Receiver
+    {
+        /**
+         * Accept an animal whose location is already set.
+         */
+        void animal(Animal animal);
+
+        /**
+         * Accept a plant whose location is already set.
+         */
+        void plant(Plant plant);
+    }
+
+    /**
+     * Decode a message, creating each entity at its local location.
+     * @param message The message produced by finish().
+     * @param rowShift Added to each global row to give the local row.
+     * @param receiver Accepts the decoded entities.
+     */
+    public static void decode(byte[] message, int rowShift, Receiver receiver) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+        int count = in.readInt();
+        for(int i = 0; i < count; i++) {
+            Species species = Species.byId(in.readByte());
+            Location location = new Location(in.readInt() + rowShift, in.readInt());
+            int age = in.readInt();
+            int foodLevel = in.readInt();
+            Animal.Gender gender = Animal.Gender.values()[in.readByte()];
+            if(species.isPlant()) {
+                Plant plant = species.createPlant(false, location, rand);
+                plant.restore(age);
+                receiver.plant(plant);
+            }
+            else {
+                Animal animal = species.createAnimal(false, location, rand);
+                animal.restore(age, foodLevel, gender);
+                receiver.animal(animal);
+            }
+        }
+    }
+}
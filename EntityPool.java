@@ -0,0 +1,227 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Free lists of dead animals and plants, per species, so that newborn
+ * animals and new plants can reuse them instead of being allocated.
+ *
+ * Dead entities are harvested from a field just before it is emptied
+ * for reuse (see Simulator), and released to the free lists only at the
+ * following harvest: an animal killed after it moved can still be in
+ * the field built that step, and is unreachable only once that field
+ * has been emptied in turn.
+ *
+ * In verify mode, the fields are checked after every step for entities
+ * that are on a free list, and each reuse bumps the entity's generation
+ * so that a stale reference can be told from the entity's new life.
+ *
+ * Each simulation has its own pool and settings, so simulations never
+ * see each other's dead entities. While a simulation steps, its pool is
+ * the current one of the thread stepping it, which is where the species
+ * get it from; a thread not stepping any simulation has a pool of its
+ * own that never reuses anything.
+ */
+public class EntityPool
+{
+    // The most entities kept on each free list.
+    private static final int MAX_FREE = 1 << 16;
+    // The pool of the simulation each thread is stepping, if any.
+    private static final ThreadLocal<EntityPool> pools = ThreadLocal.withInitial(EntityPool::new);
+
+    // The free entities of each species, by species id.
+    private final List<ArrayDeque<Animal>> freeAnimals = new ArrayList<>();
+    private final List<ArrayDeque<Plant>> freePlants = new ArrayList<>();
+    // Entities harvested at the last harvest, waiting to be released.
+    private List<Animal> pendingAnimals = new ArrayList<>();
+    private List<Plant> pendingPlants = new ArrayList<>();
+    // Entities harvested at this harvest.
+    private List<Animal> harvestedAnimals = new ArrayList<>();
+    private List<Plant> harvestedPlants = new ArrayList<>();
+    // Whether entities are reused at all, and whether fields are checked.
+    private boolean enabled;
+    private boolean verify;
+    // The number of entities allocated and reused for births.
+    private long allocated;
+    private long reused;
+
+    /**
+     * Create a pool that reuses nothing until configured.
+     */
+    public EntityPool()
+    {
+        for(int s = 0; s < Species.COUNT; s++) {
+            freeAnimals.add(new ArrayDeque<>());
+            freePlants.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Return the pool of the simulation the current thread is stepping.
+     */
+    public static EntityPool current()
+    {
+        return pools.get();
+    }
+
+    /**
+     * Make the given pool the current thread's, while it steps the
+     * pool's simulation.
+     * @return The thread's previous pool, to be restored afterwards.
+     */
+    public static EntityPool use(EntityPool pool)
+    {
+        EntityPool previous = pools.get();
+        pools.set(pool);
+        return previous;
+    }
+
+    /**
+     * Turn reuse on or off. When off, entities are always allocated.
+     * @param enabled true to reuse dead entities.
+     * @param verify true to check the fields for stale references.
+     */
+    public void configure(boolean enabled, boolean verify)
+    {
+        this.enabled = enabled;
+        this.verify = verify;
+        if(!enabled) {
+            for(int s = 0; s < Species.COUNT; s++) {
+                freeAnimals.get(s).clear();
+                freePlants.get(s).clear();
+            }
+            pendingAnimals.clear();
+            pendingPlants.clear();
+        }
+    }
+
+    /**
+     * Return whether dead entities are reused.
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Return a newborn of the parent's species, reusing a dead one if
+     * there is one. It is positioned when placed.
+     */
+    public Animal young(Animal parent)
+    {
+        Animal young = freeAnimals.get(parent.getSpeciesId()).poll();
+        if(young == null) {
+            allocated++;
+            return parent.createYoung();
+        }
+        reused++;
+        young.reuse();
+        return young;
+    }
+
+    /**
+     * Return a new plant of the parent's species at the location, reusing
+     * a dead one if there is one.
+     */
+    public Plant seedling(Plant parent, Location location)
+    {
+        Plant seedling = freePlants.get(parent.getSpeciesId()).poll();
+        if(seedling == null) {
+            allocated++;
+            return parent.createSeedling(location);
+        }
+        reused++;
+        seedling.reuse(location);
+        return seedling;
+    }
+
+    /**
+     * Take the dead entities of a field that is about to be emptied, and
+     * release those taken at the previous harvest, which can no longer be
+     * reached from any field once this one is emptied.
+     * @param field The field about to be emptied.
+     */
+    public void harvest(Field field)
+    {
+        if(!enabled) {
+            return;
+        }
+        for(Animal anAnimal : field.getAnimals()) {
+            if(!anAnimal.isAlive() && !anAnimal.isRecycled()) {
+                anAnimal.setRecycled(true);
+                harvestedAnimals.add(anAnimal);
+            }
+        }
+        for(Plant aPlant : field.getPlants()) {
+            if(!aPlant.isAlive() && !aPlant.isRecycled()) {
+                aPlant.setRecycled(true);
+                harvestedPlants.add(aPlant);
+            }
+        }
+    }
+
+    /**
+     * Release the entities harvested before the last harvest to the free
+     * lists. Call once the harvested field has been emptied.
+     */
+    public void release()
+    {
+        if(!enabled) {
+            return;
+        }
+        for(Animal anAnimal : pendingAnimals) {
+            ArrayDeque<Animal> free = freeAnimals.get(anAnimal.getSpeciesId());
+            if(free.size() < MAX_FREE) {
+                free.add(anAnimal);
+            }
+        }
+        for(Plant aPlant : pendingPlants) {
+            ArrayDeque<Plant> free = freePlants.get(aPlant.getSpeciesId());
+            if(free.size() < MAX_FREE) {
+                free.add(aPlant);
+            }
+        }
+        List<Animal> animals = pendingAnimals;
+        pendingAnimals = harvestedAnimals;
+        harvestedAnimals = animals;
+        harvestedAnimals.clear();
+        List<Plant> plants = pendingPlants;
+        pendingPlants = harvestedPlants;
+        harvestedPlants = plants;
+        harvestedPlants.clear();
+    }
+
+    /**
+     * In verify mode, check that no entity in the field has been handed
+     * to the pool, as that would be a stale reference.
+     * @throws IllegalStateException if one is found.
+     */
+    public void verify(Field field)
+    {
+        if(!verify) {
+            return;
+        }
+        for(Animal anAnimal : field.getAnimals()) {
+            if(anAnimal.isRecycled()) {
+                throw new IllegalStateException("Stale reference to " + anAnimal
+                                                + " (generation " + anAnimal.getGeneration() + ")");
+            }
+        }
+        for(Plant aPlant : field.getPlants()) {
+            if(aPlant.isRecycled()) {
+                throw new IllegalStateException("Stale reference to " + aPlant.getSpecies().getLabel()
+                                                + " (generation " + aPlant.getGeneration() + ")");
+            }
+        }
+    }
+
+    /**
+     * Describe how many entities have been allocated and reused.
+     */
+    public String describe()
+    {
+        long total = allocated + reused;
+        return String.format("Entities: %d allocated, %d reused (%.0f%%)", allocated, reused,
+                             total == 0 ? 0.0 : 100.0 * reused / total);
+    }
+}
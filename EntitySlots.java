@@ -0,0 +1,100 @@
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The age, food level and flags of the live entities of fields stored
+ * off the heap (see FieldStorage.OFF_HEAP_INDEX), one slot of three ints
+ * each, in direct or memory-mapped buffers.
+ *
+ * An entity moves its state into a slot when it is placed in such a
+ * field and back into its own object when it dies or the field is
+ * emptied under it, so the slots in use grow with the live population
+ * only. The fields of one simulation share a table, as its entities
+ * move between them every step. Slots are taken and given back only by
+ * the thread stepping the simulation; reading them may be concurrent.
+ */
+public class EntitySlots
+{
+    /** The ints of a slot. */
+    public static final int AGE = 0;
+    public static final int FOOD_LEVEL = 1;
+    public static final int FLAGS = 2;
+    private static final int SLOT_INTS = 3;
+    // Slots per buffer.
+    private static final int SEGMENT_SHIFT = 16;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    // Where to map the buffers from, or null for direct memory.
+    private final Path directory;
+    // The buffers, each holding 1 << SEGMENT_SHIFT slots.
+    private volatile IntBuffer[] segments = new IntBuffer[0];
+    // The number of slots ever handed out.
+    private int slotCount;
+    // Slots that have been given back, available for reuse.
+    private int[] freeSlots = new int[1024];
+    private int freeCount;
+
+    /**
+     * Create an empty table.
+     * @param directory Where to map the slots from, or null for direct
+     *                  memory.
+     */
+    public EntitySlots(Path directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Take an unused slot, growing the table if necessary. Its contents
+     * are undefined.
+     */
+    public int take()
+    {
+        if(freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if(slotCount == segments.length << SEGMENT_SHIFT) {
+            IntBuffer[] grown = Arrays.copyOf(segments, segments.length + 1);
+            grown[segments.length] = FieldStorage.allocate((long) SLOT_INTS * 4 << SEGMENT_SHIFT, directory)
+                                                 .asIntBuffer();
+            segments = grown;
+        }
+        return slotCount++;
+    }
+
+    /**
+     * Give back a slot taken earlier.
+     */
+    public void release(int slot)
+    {
+        if(freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Return one of the ints of a slot (AGE, FOOD_LEVEL or FLAGS).
+     */
+    public int get(int slot, int value)
+    {
+        return segments[slot >>> SEGMENT_SHIFT].get((slot & SEGMENT_MASK) * SLOT_INTS + value);
+    }
+
+    /**
+     * Set one of the ints of a slot (AGE, FOOD_LEVEL or FLAGS).
+     */
+    public void set(int slot, int value, int contents)
+    {
+        segments[slot >>> SEGMENT_SHIFT].put((slot & SEGMENT_MASK) * SLOT_INTS + value, contents);
+    }
+
+    /**
+     * Return the number of slots in use.
+     */
+    public int inUse()
+    {
+        return slotCount - freeCount;
+    }
+}
@@ -1,4 +1,3 @@
-import java.util.List;
 import java.util.Random;
 
 /**
@@ -14,11 +13,18 @@ public class Fern extends Plant
     private static final Random rand = Randomizer.getRandom();
 
     public Fern(boolean randomAge, Location location)
+    {
+        this(randomAge, location, rand);
+    }
+
+    /**
+     * Create a fern whose initial state is drawn from the given generator.
+     */
+    public Fern(boolean randomAge, Location location, Random rand)
     {
         super(location, MATURITY_AGE);
-        age = 0;
         if(randomAge) {
-            age = rand.nextInt(MAX_AGE);
+            setAge(rand.nextInt(MAX_AGE));
         }
     }
 
@@ -28,13 +34,14 @@ public class Fern extends Plant
         incrementAge();
         if(isAlive()) {
             nextFieldState.placePlant(this, getLocation());
-            if(isEdible() && weather == Weather.RAIN) {
-                List<Location> free = nextFieldState.getFreeAdjacentLocations(getLocation());
-                for(Location loc : free) {
-                    if(nextFieldState.getPlantAt(loc) == null
-                            && rand.nextDouble() <= SPORE_PROBABILITY
+            if(isEdible() && spreadsIn(weather)) {
+                int[] bare = spreadBuffer.get();
+                int count = nextFieldState.getBareAdjacentCells(nextFieldState.cellOf(getLocation()), bare);
+                for(int i = 0; i < count; i++) {
+                    if(rand.nextDouble() <= SPORE_PROBABILITY
                             && rand.nextInt(MAX_SPORES + 1) > 0) {
-                        nextFieldState.placePlant(new Fern(false, loc), loc);
+                        Location loc = nextFieldState.locationOf(bare[i]);
+                        nextFieldState.placePlant(EntityPool.current().seedling(this, loc), loc);
                     }
                 }
             }
@@ -42,14 +49,20 @@ public class Fern extends Plant
     }
 
     @Override
-    public int getMaxAge()
+    protected Plant createSeedling(Location location)
     {
-        return MAX_AGE;
+        return new Fern(false, location);
     }
 
     @Override
-    public boolean isEdibleBy(Animal predator)
+    public Species getSpecies()
     {
-        return predator instanceof Capybara && isEdible();
+        return Species.FERN;
+    }
+
+    @Override
+    public int getMaxAge()
+    {
+        return MAX_AGE;
     }
 }
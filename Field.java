@@ -1,3 +1,4 @@
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -11,17 +12,60 @@ public class Field
 {
     // A random number generator for providing random locations.
     private static final Random rand = Randomizer.getRandom();
+    // Per-thread scratch buffer for the cells behind the Location-based
+    // neighbour queries, grown to the largest radius asked for.
+    private static final ThreadLocal<int[]> scratchCells =
+        ThreadLocal.withInitial(() -> new int[8]);
     
+    // The width of the border of sentinel cells around the grid of a
+    // HALO field: enough for the Moore neighbourhood.
+    private static final int HALO_BORDER = 1;
+
     // The dimensions of the field.
     private final int depth, width;
-    // Animals mapped by location.
-    private final Map<Location, Animal> field = new HashMap<>();
-    // Plants mapped by location (separate layer).
-    private final Map<Location, Plant> plants = new HashMap<>();
+    // How the layers are stored.
+    private final FieldStorage storage;
+    // Where the state of the entities placed in the field is kept, or
+    // null if they keep it themselves (see FieldStorage.createEntitySlots).
+    private final EntitySlots entitySlots;
+    // The layers are laid out row by row with a border of this many
+    // cells on every side (see Topology.HALO), so each row is stride
+    // cells long and cell (row + border) * stride + col + border holds
+    // (row, col). Without a border the cells are row * width + col.
+    private int border;
+    private int stride;
+    // Animals indexed by cell.
+    private CellStore<Animal> field;
+    // Plants indexed by cell (separate layer).
+    private CellStore<Plant> plants;
     // The animals.
     private final List<Animal> animals = new ArrayList<>();
     // The plants (kept separate from animals).
     private final List<Plant> plantList = new ArrayList<>();
+    // The cells whose contents belong to this field. Cells outside the
+    // range hold copies of another field's rows (see StripWorker),
+    // which do not act here.
+    private int firstOwnedCell, endOwnedCell;
+    // How the edges are joined.
+    private Topology topology = Topology.BOUNDED;
+    // One bit per cell, set where an animal has been placed (it may since
+    // have died) and where there is a plant, for quick free-cell tests.
+    private PagedBits animalBits;
+    private PagedBits plantBits;
+    // One bit per cell, set on the cells of the border; null without one.
+    private PagedBits borderBits;
+    // For every cell, a bit (1 << species id) for each species with a
+    // live animal or edible plant in the cell or its Moore neighbourhood.
+    // Rebuilt on first use after the field changes.
+    private ByteBuffer neighbourMasks;
+    private ByteBuffer maskScratch;
+    // In place of the buffers above when the storage is sparse, the masks
+    // of the cells in or next to an occupied one.
+    private CellStore<Byte> sparseMasks;
+    private volatile boolean masksValid;
+    // The plants of the quiet tiles, kept out of the layers while this
+    // field holds the current state (see PlantLayer); null if not used.
+    private PlantLayer plantLayer;
 
     /**
      * Represent a field of the given dimensions.
@@ -29,9 +73,200 @@ public class Field
      * @param width The width of the field.
      */
     public Field(int depth, int width)
+    {
+        this(depth, width, FieldStorage.ARRAY);
+    }
+
+    /**
+     * Represent a field of the given dimensions, stored as given.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param storage How to store the grid.
+     */
+    public Field(int depth, int width, FieldStorage storage)
+    {
+        this(depth, width, storage, storage.createEntitySlots());
+    }
+
+    /**
+     * Represent an empty field of the same size and storage as the given
+     * one, into which its entities can move: they share where their
+     * state is kept.
+     * @param sibling The field to match.
+     */
+    public Field(Field sibling)
+    {
+        this(sibling.depth, sibling.width, sibling.storage, sibling.entitySlots);
+    }
+
+    private Field(int depth, int width, FieldStorage storage, EntitySlots entitySlots)
     {
         this.depth = depth;
         this.width = width;
+        this.storage = storage;
+        this.entitySlots = entitySlots;
+        layOut(0);
+    }
+
+    /**
+     * Create the layers with the given border around the grid, moving
+     * the live animals and plants into them.
+     */
+    private void layOut(int newBorder)
+    {
+        long paddedDepth = depth + 2L * newBorder;
+        long paddedWidth = width + 2L * newBorder;
+        if(paddedDepth * paddedWidth > Integer.MAX_VALUE - 64) {
+            throw new IllegalArgumentException("A field of " + depth + " x " + width + " has too many cells");
+        }
+        if(holdsPlantLayer()) {
+            plantLayer.thawAll();
+        }
+        List<Animal> liveAnimals = new ArrayList<>();
+        List<Location> animalLocations = new ArrayList<>();
+        for(Animal anAnimal : animals) {
+            if(anAnimal.isAlive()) {
+                liveAnimals.add(anAnimal);
+                animalLocations.add(anAnimal.getLocation());
+            }
+        }
+        List<Plant> livePlants = new ArrayList<>();
+        for(Plant aPlant : plantList) {
+            if(aPlant.isAlive()) {
+                livePlants.add(aPlant);
+            }
+        }
+        border = newBorder;
+        stride = (int) paddedWidth;
+        int cells = (int) (paddedDepth * paddedWidth);
+        field = storage.create((int) paddedDepth, stride);
+        plants = storage.create((int) paddedDepth, stride);
+        animalBits = storage.createBits(cells);
+        plantBits = storage.createBits(cells);
+        sparseMasks = storage.isSparse() ? new ChunkedCellStore<>((int) paddedDepth, stride) : null;
+        neighbourMasks = null;
+        maskScratch = null;
+        borderBits = null;
+        if(border > 0) {
+            borderBits = storage.createBits(cells);
+            for(int cell = 0; cell < cells; cell++) {
+                int row = cell / stride - border;
+                int col = cell % stride - border;
+                if(row < 0 || row >= depth || col < 0 || col >= width) {
+                    borderBits.set(cell);
+                }
+            }
+        }
+        firstOwnedCell = cellOf(0, 0);
+        endOwnedCell = cellOf(depth, 0);
+        masksValid = false;
+        animals.clear();
+        plantList.clear();
+        for(int i = 0; i < liveAnimals.size(); i++) {
+            placeAnimal(liveAnimals.get(i), cellOf(animalLocations.get(i)));
+        }
+        for(Plant aPlant : livePlants) {
+            placePlant(aPlant, cellOf(aPlant.getLocation()));
+        }
+    }
+
+    /**
+     * Mark only the given rows as belonging to this field; all other
+     * rows hold copies of a neighbour's rows.
+     * @param fromRow The first owned row.
+     * @param toRow The row after the last owned row.
+     */
+    public void setOwnedRows(int fromRow, int toRow)
+    {
+        firstOwnedCell = cellOf(fromRow, 0);
+        endOwnedCell = cellOf(toRow, 0);
+    }
+
+    /**
+     * Choose how the edges of the field are joined. Changing to or from
+     * HALO lays the field out again, which renumbers its cells.
+     * @param topology The topology to use from now on.
+     */
+    public void setTopology(Topology topology)
+    {
+        this.topology = topology;
+        int newBorder = topology == Topology.HALO ? HALO_BORDER : 0;
+        if(newBorder != border) {
+            layOut(newBorder);
+        }
+        masksValid = false;
+    }
+
+    /**
+     * Return how the edges of the field are joined.
+     */
+    public Topology getTopology()
+    {
+        return topology;
+    }
+
+    /**
+     * Return whether the contents of the given cell belong to this field.
+     */
+    public boolean isOwned(int cell)
+    {
+        return cell >= firstOwnedCell && cell < endOwnedCell;
+    }
+
+    /**
+     * Return the cell index of the given row and column. Cell indices
+     * are the compact form of a location used on the hot path; they
+     * run in row-major order, from 0 to depth * width - 1 unless the
+     * field has a border (see Topology.HALO).
+     */
+    public int cellOf(int row, int col)
+    {
+        return (row + border) * stride + col + border;
+    }
+
+    /**
+     * Return the cell index of the given location.
+     */
+    public int cellOf(Location location)
+    {
+        return cellOf(location.row(), location.col());
+    }
+
+    /**
+     * Return the location of the given cell index.
+     */
+    public Location locationOf(int cell)
+    {
+        return new Location(rowOf(cell), colOf(cell));
+    }
+
+    /**
+     * Return the row of the given cell index.
+     */
+    public int rowOf(int cell)
+    {
+        return cell / stride - border;
+    }
+
+    /**
+     * Return the column of the given cell index.
+     */
+    public int colOf(int cell)
+    {
+        return cell % stride - border;
+    }
+
+    /**
+     * Return the position of the given cell in row-major order over the
+     * grid alone (row * width + col), as files and digests record it
+     * whatever the field's layout.
+     */
+    public int indexOf(int cell)
+    {
+        if(border == 0) {
+            return cell;
+        }
+        return rowOf(cell) * width + colOf(cell);
     }
 
     /**
@@ -44,12 +279,25 @@ public class Field
     public void placeAnimal(Animal anAnimal, Location location)
     {
         assert location != null;
-        Animal other = field.get(location);
+        placeAnimal(anAnimal, cellOf(location));
+    }
+
+    /**
+     * Place an animal at the given cell, which becomes its position. If
+     * there is already an animal at the cell it will be lost.
+     */
+    public void placeAnimal(Animal anAnimal, int cell)
+    {
+        masksValid = false;
+        Animal other = field.get(cell);
         if(other != null) {
             animals.remove(other);
+            other.removedFrom(this);
         }
-        field.put(location, anAnimal);
+        field.set(cell, anAnimal);
+        animalBits.set(cell);
         animals.add(anAnimal);
+        anAnimal.placedAt(cell, this);
     }
 
     /**
@@ -60,17 +308,58 @@ public class Field
     public void placePlant(Plant aPlant, Location location)
     {
         assert location != null;
-        Plant other = plants.get(location);
+        placePlant(aPlant, cellOf(location));
+    }
+
+    /**
+     * Place a plant at the given cell, replacing any plant already there.
+     */
+    public void placePlant(Plant aPlant, int cell)
+    {
+        masksValid = false;
+        Plant other = plants.get(cell);
         if(other != null) {
             plantList.remove(other);
+            if(other != aPlant) {
+                other.removedFrom(this);
+            }
         }
-        if(aPlant == null) {
-            plants.remove(location);
+        plants.set(cell, aPlant);
+        if(aPlant != null) {
+            plantBits.set(cell);
+            plantList.add(aPlant);
+            aPlant.placedAt(this);
         }
         else {
-            plants.put(location, aPlant);
-            plantList.add(aPlant);
+            plantBits.clear(cell);
+        }
+    }
+
+    /**
+     * Place many animals and plants at once, each at its own location.
+     * The cells they go to must be empty.
+     * @param newAnimals The animals to place.
+     * @param newPlants The plants to place.
+     */
+    public void placeAll(List<Animal> newAnimals, List<Plant> newPlants)
+    {
+        masksValid = false;
+        for(Animal anAnimal : newAnimals) {
+            int cell = cellOf(anAnimal.getLocation());
+            assert field.get(cell) == null;
+            field.set(cell, anAnimal);
+            animalBits.set(cell);
+            anAnimal.placedAt(cell, this);
         }
+        animals.addAll(newAnimals);
+        for(Plant aPlant : newPlants) {
+            int cell = cellOf(aPlant.getLocation());
+            assert plants.get(cell) == null;
+            plants.set(cell, aPlant);
+            plantBits.set(cell);
+            aPlant.placedAt(this);
+        }
+        plantList.addAll(newPlants);
     }
 
     /**
@@ -78,7 +367,24 @@ public class Field
      */
     public void clearPlant(Location location)
     {
-        plants.remove(location);
+        clearPlant(cellOf(location));
+    }
+
+    /**
+     * Remove any plant at the given cell.
+     */
+    public void clearPlant(int cell)
+    {
+        // The neighbour masks are a snapshot that may still include the
+        // plant (see getNeighbourMask), so are not invalidated: doing so
+        // would rebuild them over the whole field after every meal
+        // instead of once per step.
+        Plant aPlant = plants.get(cell);
+        if(aPlant != null) {
+            aPlant.removedFrom(this);
+        }
+        plants.set(cell, null);
+        plantBits.clear(cell);
     }
     
     /**
@@ -88,7 +394,15 @@ public class Field
      */
     public Animal getAnimalAt(Location location)
     {
-        return field.get(location);
+        return field.get(cellOf(location));
+    }
+
+    /**
+     * Return the animal at the given cell, if any.
+     */
+    public Animal getAnimalAt(int cell)
+    {
+        return field.get(cell);
     }
 
     /**
@@ -96,7 +410,36 @@ public class Field
      */
     public Plant getPlantAt(Location location)
     {
-        return plants.get(location);
+        return plants.get(cellOf(location));
+    }
+
+    /**
+     * Return the plant at the given cell, if any.
+     */
+    public Plant getPlantAt(int cell)
+    {
+        Plant aPlant = plants.get(cell);
+        if(aPlant == null && holdsPlantLayer() && plantLayer.thawAt(rowOf(cell), colOf(cell))) {
+            aPlant = plants.get(cell);
+        }
+        return aPlant;
+    }
+
+    /**
+     * Use the given layer for the plants of quiet tiles; it holds them
+     * while this field holds the current state.
+     */
+    void setPlantLayer(PlantLayer plantLayer)
+    {
+        this.plantLayer = plantLayer;
+    }
+
+    /**
+     * Return whether some of this field's plants are in its plant layer.
+     */
+    private boolean holdsPlantLayer()
+    {
+        return plantLayer != null && plantLayer.isHeldBy(this);
     }
 
     /**
@@ -106,18 +449,209 @@ public class Field
      */
     public List<Location> getFreeAdjacentLocations(Location location)
     {
-        List<Location> free = new LinkedList<>();
-        List<Location> adjacent = getAdjacentLocations(location);
-        for(Location next : adjacent) {
-            Animal anAnimal = field.get(next);
-            if(anAnimal == null) {
-                free.add(next);
+        if(location == null) {
+            return new ArrayList<>();
+        }
+        int[] cells = scratch(1);
+        int count = getFreeAdjacentCells(cellOf(location), cells);
+        return toLocations(cells, count);
+    }
+
+    /**
+     * Write the free cells adjacent to the given one into the buffer,
+     * in random order.
+     * @param cell Get cells adjacent to this.
+     * @param free Receives the free cells; must hold at least 8.
+     * @return The number of free cells written.
+     */
+    public int getFreeAdjacentCells(int cell, int[] free)
+    {
+        if(getFreeNeighbourMask(cell) == 0) {
+            return 0;
+        }
+        int count = getAdjacentCells(cell, free);
+        int freeCount = 0;
+        for(int i = 0; i < count; i++) {
+            if(isFree(free[i])) {
+                free[freeCount++] = free[i];
             }
-            else if(!anAnimal.isAlive()) {
-                free.add(next);
+        }
+        return freeCount;
+    }
+
+    /**
+     * Write the cells adjacent to the given one that hold neither a live
+     * animal nor any plant into the buffer, in random order.
+     * @param cell Get cells adjacent to this.
+     * @param bare Receives the bare cells; must hold at least 8.
+     * @return The number of bare cells written.
+     */
+    public int getBareAdjacentCells(int cell, int[] bare)
+    {
+        if((getFreeNeighbourMask(cell) & ~getPlantNeighbourMask(cell)) == 0) {
+            return 0;
+        }
+        int count = getAdjacentCells(cell, bare);
+        int bareCount = 0;
+        for(int i = 0; i < count; i++) {
+            if(!plantBits.test(bare[i]) && isFree(bare[i])) {
+                bare[bareCount++] = bare[i];
+            }
+        }
+        return bareCount;
+    }
+
+    /**
+     * Return a mask of the neighbours of the given cell that hold no live
+     * animal. Bit k is set for the k-th neighbour in the order north-west,
+     * north, north-east, west, east, south-west, south, south-east (see
+     * neighbourOf); neighbours outside the grid are never set.
+     */
+    public int getFreeNeighbourMask(int cell)
+    {
+        int row = rowOf(cell);
+        int col = colOf(cell);
+        if(wrapsAround(row, col)) {
+            int mask = 0;
+            for(int k = 0; k < 8; k++) {
+                if(isFree(neighbourOf(cell, k))) {
+                    mask |= 1 << k;
+                }
+            }
+            return mask;
+        }
+        int valid = validNeighbours(row, col);
+        int placed = neighbourBits(animalBits, row, col) & valid;
+        // Animals placed and since killed leave their bit set.
+        for(int bits = placed; bits != 0; bits &= bits - 1) {
+            int k = Integer.numberOfTrailingZeros(bits);
+            if(!field.get(cell + (k / 3 - 1) * stride + k % 3 - 1).isAlive()) {
+                placed &= ~(1 << k);
+            }
+        }
+        return compress(valid & ~placed);
+    }
+
+    /**
+     * Return a mask of the neighbours of the given cell that hold a
+     * plant, in the order of getFreeNeighbourMask.
+     */
+    public int getPlantNeighbourMask(int cell)
+    {
+        int row = rowOf(cell);
+        int col = colOf(cell);
+        if(wrapsAround(row, col)) {
+            int mask = 0;
+            for(int k = 0; k < 8; k++) {
+                if(plantBits.test(neighbourOf(cell, k))) {
+                    mask |= 1 << k;
+                }
             }
+            return mask;
+        }
+        return compress(neighbourBits(plantBits, row, col) & validNeighbours(row, col));
+    }
+
+    /**
+     * Return the k-th neighbour of the cell, in the order of
+     * getFreeNeighbourMask. Unless the field is a torus, the neighbour
+     * must lie within the grid.
+     */
+    public int neighbourOf(int cell, int k)
+    {
+        // Skip the centre of the 3x3 block.
+        int block = k < 4 ? k : k + 1;
+        if(topology != Topology.TORUS) {
+            return cell + (block / 3 - 1) * stride + block % 3 - 1;
+        }
+        int row = rowOf(cell);
+        int col = colOf(cell);
+        return cellOf(Math.floorMod(row + block / 3 - 1, depth), Math.floorMod(col + block % 3 - 1, width));
+    }
+
+    /**
+     * Write the cells adjacent to the given one into the buffer, in the
+     * order of getFreeNeighbourMask. Unlike getAdjacentCells, this draws
+     * no random numbers.
+     * @param cell Get cells adjacent to this.
+     * @param neighbours Receives the cells; must hold at least 8.
+     * @return The number of cells written.
+     */
+    public int getNeighbourCells(int cell, int[] neighbours)
+    {
+        int row = rowOf(cell);
+        int col = colOf(cell);
+        int mask = topology == Topology.TORUS ? 0xFF : compress(validNeighbours(row, col));
+        int count = 0;
+        for(; mask != 0; mask &= mask - 1) {
+            neighbours[count++] = neighbourOf(cell, Integer.numberOfTrailingZeros(mask));
+        }
+        return count;
+    }
+
+    /**
+     * Return whether the cell's neighbours wrap around the edges.
+     */
+    private boolean wrapsAround(int row, int col)
+    {
+        return topology == Topology.TORUS && (row == 0 || row == depth - 1 || col == 0 || col == width - 1);
+    }
+
+    /**
+     * Return whether the cell holds no live animal.
+     */
+    private boolean isFree(int cell)
+    {
+        return !animalBits.test(cell) || !field.get(cell).isAlive();
+    }
+
+    /**
+     * Return the bits of the 3x3 block centred on the cell, row by row
+     * from the north-west (bit 0) to the south-east (bit 8). Rows outside
+     * the grid and its border read as zero; columns outside the grid
+     * must be masked off.
+     */
+    private int neighbourBits(PagedBits bits, int row, int col)
+    {
+        int block = 0;
+        for(int r = Math.max(-border, row - 1); r <= Math.min(depth - 1 + border, row + 1); r++) {
+            block |= bits.threeBits(cellOf(r, col) - 1) << ((r - row + 1) * 3);
+        }
+        return block;
+    }
+
+    /**
+     * Return the bits of the 3x3 block centred on the cell that lie
+     * within the grid, excluding the centre.
+     */
+    private int validNeighbours(int row, int col)
+    {
+        if(borderBits != null) {
+            // The border's sentinel bits mark the neighbours outside.
+            return ~neighbourBits(borderBits, row, col) & 0b111_101_111;
+        }
+        int valid = 0b111_101_111;
+        if(row == 0) {
+            valid &= ~0b000_000_111;
+        }
+        if(row == depth - 1) {
+            valid &= ~0b111_000_000;
         }
-        return free;
+        if(col == 0) {
+            valid &= ~0b001_001_001;
+        }
+        if(col == width - 1) {
+            valid &= ~0b100_100_100;
+        }
+        return valid;
+    }
+
+    /**
+     * Drop the centre bit of a 3x3 block to give an 8-neighbour mask.
+     */
+    private static int compress(int block)
+    {
+        return (block & 0xF) | ((block >> 1) & 0xF0);
     }
 
     /**
@@ -129,29 +663,25 @@ public class Field
      */
     public List<Location> getAdjacentLocations(Location location)
     {
-        // The list of locations to be returned.
-        List<Location> locations = new ArrayList<>();
-        if(location != null) {
-            int row = location.row();
-            int col = location.col();
-            for(int roffset = -1; roffset <= 1; roffset++) {
-                int nextRow = row + roffset;
-                if(nextRow >= 0 && nextRow < depth) {
-                    for(int coffset = -1; coffset <= 1; coffset++) {
-                        int nextCol = col + coffset;
-                        // Exclude invalid locations and the original location.
-                        if(nextCol >= 0 && nextCol < width && (roffset != 0 || coffset != 0)) {
-                            locations.add(new Location(nextRow, nextCol));
-                        }
-                    }
-                }
-            }
-            
-            // Shuffle the list. Several other methods rely on the list
-            // being in a random order.
-            Collections.shuffle(locations, rand);
+        if(location == null) {
+            return new ArrayList<>();
         }
-        return locations;
+        int[] cells = scratch(1);
+        int count = getAdjacentCells(cellOf(location), cells);
+        return toLocations(cells, count);
+    }
+
+    /**
+     * Write the cells adjacent to the given one into the buffer, in
+     * random order. The cell itself is not included and all cells lie
+     * within the grid.
+     * @param cell The cell from which to generate adjacencies.
+     * @param adjacent Receives the adjacent cells; must hold at least 8.
+     * @return The number of cells written.
+     */
+    public int getAdjacentCells(int cell, int[] adjacent)
+    {
+        return getCellsWithinRadius(cell, 1, adjacent);
     }
 
     /**
@@ -160,22 +690,72 @@ public class Field
      */
     public List<Location> getLocationsWithinRadius(Location location, int radius)
     {
-        List<Location> locations = new ArrayList<>();
-        if(location != null) {
-            int row = location.row();
-            int col = location.col();
-            for(int roffset = -radius; roffset <= radius; roffset++) {
-                int nextRow = row + roffset;
-                if(nextRow >= 0 && nextRow < depth) {
-                    for(int coffset = -radius; coffset <= radius; coffset++) {
-                        int nextCol = col + coffset;
-                        if(nextCol >= 0 && nextCol < width && (roffset != 0 || coffset != 0)) {
-                            locations.add(new Location(nextRow, nextCol));
-                        }
-                    }
-                }
-            }
-            Collections.shuffle(locations, rand);
+        if(location == null) {
+            return new ArrayList<>();
+        }
+        int[] cells = scratch(radius);
+        int count = getCellsWithinRadius(cellOf(location), radius, cells);
+        return toLocations(cells, count);
+    }
+
+    /**
+     * Write all cells within the given radius of the specified cell into
+     * the buffer, in random order, excluding the cell itself.
+     * @param cell The centre cell.
+     * @param radius The radius of the square neighbourhood.
+     * @param cells Receives the cells; must hold at least
+     *              neighbourhoodSize(radius).
+     * @return The number of cells written.
+     */
+    public int getCellsWithinRadius(int cell, int radius, int[] cells)
+    {
+        int row = rowOf(cell);
+        int col = colOf(cell);
+        // The neighbourhood supplies the cells in a random order. Several
+        // other methods rely on them being in a random order.
+        Neighbourhood neighbourhood = Neighbourhood.of(radius);
+        switch(topology) {
+            case TORUS:
+                return neighbourhood.wrappedCells(row, col, depth, width, rand, cells);
+            case HALO:
+                return neighbourhood.paddedCells(row, col, depth, width, border, borderBits, rand, cells);
+            default:
+                return neighbourhood.cells(row, col, depth, width, rand, cells);
+        }
+    }
+
+    /**
+     * Return the largest number of cells in a neighbourhood of the given
+     * radius, excluding the centre.
+     */
+    public static int neighbourhoodSize(int radius)
+    {
+        int side = 2 * radius + 1;
+        return side * side - 1;
+    }
+
+    /**
+     * Return this thread's scratch buffer, large enough for the cells
+     * within the given radius.
+     */
+    private static int[] scratch(int radius)
+    {
+        int[] cells = scratchCells.get();
+        if(cells.length < neighbourhoodSize(radius)) {
+            cells = new int[neighbourhoodSize(radius)];
+            scratchCells.set(cells);
+        }
+        return cells;
+    }
+
+    /**
+     * Convert the first count cells of the buffer into locations.
+     */
+    private List<Location> toLocations(int[] cells, int count)
+    {
+        List<Location> locations = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            locations.add(locationOf(cells[i]));
         }
         return locations;
     }
@@ -187,16 +767,25 @@ public class Field
     {
         // Generic counts for all species present in the field.
         Map<Class<?>, Integer> counts = new HashMap<>();
-        for(Animal anAnimal : field.values()) {
+        for(Animal anAnimal : animals) {
             if(anAnimal != null && anAnimal.isAlive()) {
                 counts.merge(anAnimal.getClass(), 1, Integer::sum);
             }
         }
-        for(Plant p : plants.values()) {
+        for(Plant p : plantList) {
             if(p != null && p.isAlive()) {
                 counts.merge(p.getClass(), 1, Integer::sum);
             }
         }
+        if(holdsPlantLayer()) {
+            int[] quiet = new int[Species.COUNT];
+            plantLayer.countInto(quiet);
+            for(int id = 0; id < Species.COUNT; id++) {
+                if(quiet[id] > 0) {
+                    counts.merge(plantLayer.classOf(id), quiet[id], Integer::sum);
+                }
+            }
+        }
         // Format output similar to previous implementation.
         StringBuilder sb = new StringBuilder();
         for(Map.Entry<Class<?>, Integer> e : counts.entrySet()) {
@@ -206,13 +795,255 @@ public class Field
         System.out.println(sb.toString().trim());
     }
 
+    /**
+     * Remove all animals and plants in the given rows.
+     * @param fromRow The first row to empty.
+     * @param toRow The row after the last one to empty.
+     */
+    public void clearRows(int fromRow, int toRow)
+    {
+        masksValid = false;
+        Set<Object> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for(int cell = cellOf(fromRow, 0); cell < cellOf(toRow, 0); cell++) {
+            Animal anAnimal = field.get(cell);
+            if(anAnimal != null) {
+                removed.add(anAnimal);
+                anAnimal.removedFrom(this);
+                field.set(cell, null);
+                animalBits.clear(cell);
+            }
+            Plant aPlant = plants.get(cell);
+            if(aPlant != null) {
+                removed.add(aPlant);
+                aPlant.removedFrom(this);
+                plants.set(cell, null);
+                plantBits.clear(cell);
+            }
+        }
+        if(!removed.isEmpty()) {
+            animals.removeIf(removed::contains);
+            plantList.removeIf(removed::contains);
+        }
+    }
+
+    /**
+     * Count the live animals and plants of each species.
+     * @return The counts, indexed by species id.
+     */
+    public int[] getSpeciesCounts()
+    {
+        return getSpeciesCounts(new int[Species.COUNT]);
+    }
+
+    /**
+     * Count the live animals and plants of each species into the array.
+     * @param counts Receives the counts, indexed by species id.
+     * @return The array given.
+     */
+    public int[] getSpeciesCounts(int[] counts)
+    {
+        Arrays.fill(counts, 0);
+        for(Animal anAnimal : animals) {
+            if(anAnimal.isAlive()) {
+                counts[anAnimal.getSpeciesId()]++;
+            }
+        }
+        for(Plant aPlant : plantList) {
+            if(aPlant.isAlive()) {
+                counts[aPlant.getSpeciesId()]++;
+            }
+        }
+        if(holdsPlantLayer()) {
+            plantLayer.countInto(counts);
+        }
+        return counts;
+    }
+
+    /**
+     * Return a bit (1 << species id) for each species with a live animal
+     * or edible plant in the given cell or adjacent to it, as the field
+     * was when first asked during this step. Animals eaten or starved
+     * since are still included, so a clear bit means the species is
+     * certainly absent. The masks for the whole field are built in one
+     * pass the first time they are asked for after the field changes.
+     */
+    public int getNeighbourMask(int cell)
+    {
+        if(!masksValid) {
+            buildNeighbourMasks();
+        }
+        if(sparseMasks != null) {
+            Byte mask = sparseMasks.get(cell);
+            return mask == null ? 0 : mask & 0xFF;
+        }
+        return neighbourMasks.get(cell) & 0xFF;
+    }
+
+    /**
+     * Mark each cell's species, then dilate the marks over the Moore
+     * neighbourhood: first along the rows, then along the columns.
+     */
+    private synchronized void buildNeighbourMasks()
+    {
+        if(masksValid) {
+            return;
+        }
+        if(sparseMasks != null) {
+            buildSparseNeighbourMasks();
+            masksValid = true;
+            return;
+        }
+        int cells = (depth + 2 * border) * stride;
+        if(neighbourMasks == null) {
+            neighbourMasks = storage.createBytes(cells);
+            maskScratch = storage.createBytes(cells);
+        }
+        ByteBuffer marks = maskScratch;
+        for(int cell = 0; cell < cells; cell++) {
+            marks.put(cell, (byte) 0);
+        }
+        for(Animal anAnimal : animals) {
+            if(anAnimal.isAlive()) {
+                mark(marks, anAnimal.getCell(), anAnimal.getSpeciesId());
+            }
+        }
+        for(Plant aPlant : plantList) {
+            if(aPlant.isAlive() && aPlant.isEdible()) {
+                mark(marks, cellOf(aPlant.getLocation()), aPlant.getSpeciesId());
+            }
+        }
+        ByteBuffer rows = neighbourMasks;
+        if(border > 0) {
+            dilatePadded(marks, rows);
+            neighbourMasks = marks;
+            maskScratch = rows;
+            masksValid = true;
+            return;
+        }
+        boolean torus = topology == Topology.TORUS;
+        for(int row = 0; row < depth; row++) {
+            int base = row * width;
+            for(int col = 0; col < width; col++) {
+                int mask = marks.get(base + col);
+                if(col > 0) {
+                    mask |= marks.get(base + col - 1);
+                }
+                else if(torus) {
+                    mask |= marks.get(base + width - 1);
+                }
+                if(col < width - 1) {
+                    mask |= marks.get(base + col + 1);
+                }
+                else if(torus) {
+                    mask |= marks.get(base);
+                }
+                rows.put(base + col, (byte) mask);
+            }
+        }
+        for(int cell = 0; cell < cells; cell++) {
+            int mask = rows.get(cell);
+            if(cell >= width) {
+                mask |= rows.get(cell - width);
+            }
+            else if(torus) {
+                mask |= rows.get(cell + cells - width);
+            }
+            if(cell < cells - width) {
+                mask |= rows.get(cell + width);
+            }
+            else if(torus) {
+                mask |= rows.get(cell - (cells - width));
+            }
+            marks.put(cell, (byte) mask);
+        }
+        neighbourMasks = marks;
+        maskScratch = rows;
+        masksValid = true;
+    }
+
+    /**
+     * Dilate the marks over the Moore neighbourhood of every cell of a
+     * field with a border, leaving the result in marks. The border's
+     * marks are zero, so every cell reads its neighbours unchecked.
+     * @param marks The marks, zero in the border.
+     * @param rows Scratch for the row pass, zero in the border.
+     */
+    private void dilatePadded(ByteBuffer marks, ByteBuffer rows)
+    {
+        for(int row = 0; row < depth; row++) {
+            int base = cellOf(row, 0);
+            for(int cell = base; cell < base + width; cell++) {
+                rows.put(cell, (byte) (marks.get(cell - 1) | marks.get(cell) | marks.get(cell + 1)));
+            }
+        }
+        for(int row = 0; row < depth; row++) {
+            int base = cellOf(row, 0);
+            for(int cell = base; cell < base + width; cell++) {
+                marks.put(cell, (byte) (rows.get(cell - stride) | rows.get(cell) | rows.get(cell + stride)));
+            }
+        }
+    }
+
+    /**
+     * Add the species to the mark of the cell.
+     */
+    private static void mark(ByteBuffer marks, int cell, int speciesId)
+    {
+        marks.put(cell, (byte) (marks.get(cell) | 1 << speciesId));
+    }
+
+    /**
+     * Add each live animal's and edible plant's species to the masks of
+     * its own cell and its neighbours, touching only occupied areas.
+     */
+    private void buildSparseNeighbourMasks()
+    {
+        sparseMasks.clear();
+        // The neighbours and the cell itself.
+        int[] neighbours = new int[9];
+        for(Animal anAnimal : animals) {
+            if(anAnimal.isAlive()) {
+                markNeighbourhood(anAnimal.getCell(), anAnimal.getSpeciesId(), neighbours);
+            }
+        }
+        for(Plant aPlant : plantList) {
+            if(aPlant.isAlive() && aPlant.isEdible()) {
+                markNeighbourhood(cellOf(aPlant.getLocation()), aPlant.getSpeciesId(), neighbours);
+            }
+        }
+    }
+
+    private void markNeighbourhood(int cell, int speciesId, int[] neighbours)
+    {
+        int count = getNeighbourCells(cell, neighbours);
+        neighbours[count++] = cell;
+        for(int i = 0; i < count; i++) {
+            Byte mask = sparseMasks.get(neighbours[i]);
+            sparseMasks.set(neighbours[i], (byte) ((mask == null ? 0 : mask) | 1 << speciesId));
+        }
+    }
+
     /**
      * Empty the field.
      */
     public void clear()
     {
+        masksValid = false;
+        if(holdsPlantLayer()) {
+            plantLayer.clear();
+        }
+        if(entitySlots != null) {
+            for(Animal anAnimal : animals) {
+                anAnimal.removedFrom(this);
+            }
+            for(Plant aPlant : plantList) {
+                aPlant.removedFrom(this);
+            }
+        }
         field.clear();
         plants.clear();
+        animalBits.clearAll(storage.isSparse());
+        plantBits.clearAll(storage.isSparse());
         animals.clear();
         plantList.clear();
     }
@@ -241,7 +1072,16 @@ public class Field
                 }
             }
         }
-        return false;
+        if(holdsPlantLayer()) {
+            int[] quiet = new int[Species.COUNT];
+            plantLayer.countInto(quiet);
+            for(int id = 0; id < Species.COUNT; id++) {
+                if(quiet[id] > 0) {
+                    aliveSpecies.add(plantLayer.classOf(id));
+                }
+            }
+        }
+        return aliveSpecies.size() >= 2;
     }
     
     /**
@@ -253,13 +1093,112 @@ public class Field
     }
 
     /**
-     * Get the list of plants.
+     * Get the list of plants, first putting back those of any quiet
+     * tiles (see PlantLayer).
      */
     public List<Plant> getPlants()
     {
+        if(holdsPlantLayer()) {
+            plantLayer.thawAll();
+        }
         return plantList;
     }
 
+    /**
+     * Get the list of plants placed in the field, without those of any
+     * quiet tiles.
+     */
+    public List<Plant> getPlacedPlants()
+    {
+        return plantList;
+    }
+
+    /**
+     * Reorder the animal and plant lists to match the update order. The
+     * next field's lists are filled in the order the entities act, so
+     * once sorted they stay nearly sorted and need resorting only now and
+     * then; a shuffle lasts one step.
+     */
+    public void orderEntities(UpdateOrder order)
+    {
+        if(order == UpdateOrder.SHUFFLED) {
+            Collections.shuffle(animals, rand);
+            Collections.shuffle(plantList, rand);
+        }
+        else if(order != UpdateOrder.INSERTION) {
+            sortByPosition(animals, Animal::getLocation, order == UpdateOrder.MORTON);
+            sortByPosition(plantList, Plant::getLocation, order == UpdateOrder.MORTON);
+        }
+    }
+
+    /**
+     * Stable sort of the entities by cell or by Morton code, dead ones
+     * last. Each key is packed with the entity's index into a long so
+     * that a primitive sort does the work; on fields too large for both
+     * the lowest bits of the key are dropped, which only loosens the
+     * order within small squares.
+     */
+    private <T> void sortByPosition(List<T> entities, java.util.function.Function<T, Location> locationOf,
+                                    boolean morton)
+    {
+        int size = entities.size();
+        if(size < 2) {
+            return;
+        }
+        int indexBits = 32 - Integer.numberOfLeadingZeros(size - 1);
+        int keyBits = morton ? 2 * (32 - Integer.numberOfLeadingZeros(Math.max(depth, width) - 1))
+                             : 64 - Long.numberOfLeadingZeros((long) depth * width - 1);
+        int shift = Math.max(0, keyBits + indexBits - 63);
+        long last = (1L << keyBits) - 1;
+        long[] keys = new long[size];
+        for(int i = 0; i < size; i++) {
+            Location location = locationOf.apply(entities.get(i));
+            long key = location == null ? last
+                     : morton ? spread(location.row()) << 1 | spread(location.col())
+                     : (long) location.row() * width + location.col();
+            keys[i] = (key >>> shift) << indexBits | i;
+        }
+        Arrays.sort(keys);
+        Object[] before = entities.toArray();
+        long indexMask = (1L << indexBits) - 1;
+        for(int i = 0; i < size; i++) {
+            @SuppressWarnings("unchecked")
+            T entity = (T) before[(int) (keys[i] & indexMask)];
+            entities.set(i, entity);
+        }
+    }
+
+    /**
+     * Spread the bits of a coordinate out to the even bits of a long,
+     * for interleaving into a Morton code.
+     */
+    private static long spread(int coordinate)
+    {
+        long x = coordinate & 0xFFFFFFFFL;
+        x = (x | x << 16) & 0x0000FFFF0000FFFFL;
+        x = (x | x << 8) & 0x00FF00FF00FF00FFL;
+        x = (x | x << 4) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | x << 2) & 0x3333333333333333L;
+        return (x | x << 1) & 0x5555555555555555L;
+    }
+
+    /**
+     * Return how the grid is stored.
+     */
+    public FieldStorage getStorage()
+    {
+        return storage;
+    }
+
+    /**
+     * Return where the state of the entities placed in this field is
+     * kept, or null if they keep it themselves.
+     */
+    public EntitySlots getEntitySlots()
+    {
+        return entitySlots;
+    }
+
     /**
      * Return the depth of the field.
      * @return The depth of the field.
@@ -107,11 +107,12 @@ public class FieldStats
         reset();
         for(int row = 0; row < field.getDepth(); row++) {
             for(int col = 0; col < field.getWidth(); col++) {
-                Animal animal = field.getAnimalAt(new Location(row, col));
+                int cell = field.cellOf(row, col);
+                Animal animal = field.getAnimalAt(cell);
                 if(animal != null) {
                     incrementCount(animal.getClass());
                 }
-                Plant plant = field.getPlantAt(new Location(row, col));
+                Plant plant = field.getPlantAt(cell);
                 if(plant != null) {
                     incrementCount(plant.getClass());
                 }
@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * How a field stores its grid of cells, the per-cell bits and masks it
+ * keeps alongside, and the state of the entities placed in it.
+ */
+public abstract class FieldStorage
+{
+    /** Heap arrays; the default. */
+    public static final FieldStorage ARRAY = new FieldStorage() {
+        public <T> CellStore<T> create(int depth, int width)
+        {
+            return new ArrayCellStore<>(depth * width);
+        }
+    };
+
+    /**
+     * An index of the cells, the field's per-cell bits and masks and the
+     * age, food level and flags of its live entities, all in direct
+     * (off-heap) memory. The entity objects themselves stay on the heap.
+     */
+    public static final FieldStorage OFF_HEAP_INDEX = offHeap(null);
+
+    /** Chunks allocated only where the field is occupied. */
+    public static final FieldStorage CHUNKED = new FieldStorage() {
+        public <T> CellStore<T> create(int depth, int width)
+        {
+            return new ChunkedCellStore<>(depth, width);
+        }
+
+        public boolean isSparse()
+        {
+            return true;
+        }
+    };
+
+    /**
+     * As OFF_HEAP_INDEX, but memory mapped from files created in the
+     * given directory.
+     */
+    public static FieldStorage mapped(Path directory)
+    {
+        return offHeap(directory);
+    }
+
+    /**
+     * Return storage that keeps everything but the entity objects off
+     * the heap, mapped from files in the directory or, if it is null,
+     * in direct memory.
+     */
+    private static FieldStorage offHeap(Path directory)
+    {
+        return new FieldStorage() {
+            public <T> CellStore<T> create(int depth, int width)
+            {
+                return new OffHeapCellStore<>(depth * width, directory);
+            }
+
+            public PagedBits createBits(int cells)
+            {
+                return new PagedBits.OffHeap(cells, directory);
+            }
+
+            public ByteBuffer createBytes(int cells)
+            {
+                return allocate(cells, directory);
+            }
+
+            public EntitySlots createEntitySlots()
+            {
+                return new EntitySlots(directory);
+            }
+        };
+    }
+
+    /**
+     * Return zeroed memory outside the heap, in native byte order: mapped
+     * from a new file in the directory, which is deleted once mapped, or
+     * if it is null, direct memory.
+     * @param bytes The size, at most Integer.MAX_VALUE.
+     */
+    static ByteBuffer allocate(long bytes, Path directory)
+    {
+        if(directory == null) {
+            return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+        }
+        try(FileChannel channel = OffHeapCellStore.openBackingFile(directory)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.nativeOrder());
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Create an empty store for one layer of a field.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public abstract <T> CellStore<T> create(int depth, int width);
+
+    /**
+     * Create a set of bits, all clear, for one layer of a field.
+     * @param cells The number of cells.
+     */
+    public PagedBits createBits(int cells)
+    {
+        return new PagedBits(cells);
+    }
+
+    /**
+     * Create a byte per cell, all zero, for a field's per-cell masks.
+     * @param cells The number of cells.
+     */
+    public ByteBuffer createBytes(int cells)
+    {
+        return ByteBuffer.allocate(cells);
+    }
+
+    /**
+     * Create the table in which the entities placed in a field and its
+     * siblings keep their age, food level and flags, or return null if
+     * they keep them in their own objects.
+     */
+    public EntitySlots createEntitySlots()
+    {
+        return null;
+    }
+
+    /**
+     * Return whether fields so stored are expected to be mostly empty,
+     * so that the field should avoid structures as large as its area.
+     */
+    public boolean isSparse()
+    {
+        return false;
+    }
+}
@@ -1,4 +1,3 @@
-import java.util.List;
 import java.util.Random;
 
 /**
@@ -15,11 +14,18 @@ public class FruitTree extends Plant
     private static final Random rand = Randomizer.getRandom();
 
     public FruitTree(boolean randomAge, Location location)
+    {
+        this(randomAge, location, rand);
+    }
+
+    /**
+     * Create a fruit tree whose initial state is drawn from the given generator.
+     */
+    public FruitTree(boolean randomAge, Location location, Random rand)
     {
         super(location, MATURITY_AGE);
-        age = 0;
         if(randomAge) {
-            age = rand.nextInt(MAX_AGE);
+            setAge(rand.nextInt(MAX_AGE));
         }
     }
 
@@ -29,13 +35,14 @@ public class FruitTree extends Plant
         incrementAge();
         if(isAlive()) {
             nextFieldState.placePlant(this, getLocation());
-            if(isEdible() && weather == Weather.RAIN) {
-                List<Location> free = nextFieldState.getFreeAdjacentLocations(getLocation());
-                for(Location loc : free) {
-                    if(nextFieldState.getPlantAt(loc) == null
-                            && rand.nextDouble() <= SEED_PROBABILITY
+            if(isEdible() && spreadsIn(weather)) {
+                int[] bare = spreadBuffer.get();
+                int count = nextFieldState.getBareAdjacentCells(nextFieldState.cellOf(getLocation()), bare);
+                for(int i = 0; i < count; i++) {
+                    if(rand.nextDouble() <= SEED_PROBABILITY
                             && rand.nextInt(MAX_SEEDS + 1) > 0) {
-                        nextFieldState.placePlant(new FruitTree(false, loc), loc);
+                        Location loc = nextFieldState.locationOf(bare[i]);
+                        nextFieldState.placePlant(EntityPool.current().seedling(this, loc), loc);
                     }
                 }
             }
@@ -43,14 +50,20 @@ public class FruitTree extends Plant
     }
 
     @Override
-    public int getMaxAge()
+    protected Plant createSeedling(Location location)
     {
-        return MAX_AGE;
+        return new FruitTree(false, location);
     }
 
     @Override
-    public boolean isEdibleBy(Animal predator)
+    public Species getSpecies()
     {
-        return predator instanceof HowlerMonkey && isEdible();
+        return Species.FRUIT_TREE;
+    }
+
+    @Override
+    public int getMaxAge()
+    {
+        return MAX_AGE;
     }
 }
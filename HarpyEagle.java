@@ -1,4 +1,3 @@
-import java.util.List;
 import java.util.Random;
 
 /**
@@ -11,51 +10,69 @@ public class HarpyEagle extends Animal
     private static final int MAX_AGE = 150;
     private static final double BREEDING_PROBABILITY = 0.04;
     private static final int MAX_LITTER_SIZE = 1;
-    private static final int PREY_FOOD_VALUE = 14;
+    static final int PREY_FOOD_VALUE = 14;
     private static final double FOG_HUNT_FAIL_PROBABILITY = 0.65;
     private static final Random rand = Randomizer.getRandom();
 
     public HarpyEagle(boolean randomAge, Location location)
     {
-        super(location);
-        foodLevel = rand.nextInt(7) + 7;
+        this(randomAge, location, rand);
+    }
+
+    /**
+     * Create a harpy eagle whose initial state is drawn from the given generator.
+     */
+    public HarpyEagle(boolean randomAge, Location location, Random rand)
+    {
+        super(location, rand);
+        newborn(rand);
         if(randomAge) {
-            age = rand.nextInt(MAX_AGE);
+            setAge(rand.nextInt(MAX_AGE));
         }
     }
 
+    @Override
+    protected void newborn(Random rand)
+    {
+        setFoodLevel(rand.nextInt(7) + 7);
+    }
+
     @Override
     public void act(Field currentField, Field nextFieldState, boolean isNight, Weather weather)
     {
         incrementAge();
         incrementHunger();
         if(isAlive()) {
-            List<Location> freeLocations =
-                nextFieldState.getFreeAdjacentLocations(getLocation());
-            if(!freeLocations.isEmpty()) {
-                giveBirth(currentField, nextFieldState, freeLocations);
+            FreeCells free = FreeCells.around(nextFieldState, getCell());
+            if(!free.isEmpty()) {
+                giveBirth(currentField, nextFieldState, free);
             }
-            Location nextLocation = null;
-            // Fog makes hunting harder for harpy eagles because they rely on their vision
-            if(weather != Weather.FOG || rand.nextDouble() > FOG_HUNT_FAIL_PROBABILITY) {
-                nextLocation = findFood(currentField);
+            int nextCell = -1;
+            if(canHunt(weather)) {
+                nextCell = findFood(currentField);
             }
-            // Guard: prey's current-field location may already be occupied in nextFieldState.
-            if(nextLocation != null && nextFieldState.getAnimalAt(nextLocation) != null) {
-                nextLocation = freeLocations.isEmpty() ? null : freeLocations.remove(0);
+            // Guard: prey's current-field cell may already be occupied in nextFieldState.
+            if(nextCell >= 0 && nextFieldState.getAnimalAt(nextCell) != null) {
+                nextCell = free.take();
             }
-            if(nextLocation == null && !freeLocations.isEmpty()) {
-                nextLocation = freeLocations.remove(0);
+            if(nextCell < 0) {
+                nextCell = free.take();
             }
-            if(nextLocation != null) {
-                setLocation(nextLocation);
-                nextFieldState.placeAnimal(this, nextLocation);
+            if(nextCell >= 0) {
+                                nextFieldState.placeAnimal(this, nextCell);
             } else {
                 setDead();
             }
         }
     }
 
+    @Override
+    protected boolean canHunt(Weather weather)
+    {
+        // Fog makes hunting harder for harpy eagles because they rely on their vision
+        return weather != Weather.FOG || rand.nextDouble() > FOG_HUNT_FAIL_PROBABILITY;
+    }
+
     @Override
     protected boolean requiresMate() { return true; }
 
@@ -65,36 +82,17 @@ public class HarpyEagle extends Animal
     @Override
     protected boolean canBreed()
     {
-        return age >= BREEDING_AGE;
+        return getAge() >= BREEDING_AGE;
     }
 
     @Override
     protected int getHungerThreshold() { return MAX_AGE * 10; } // always hunt
 
-    /**
-     * Eagle hunts HowlerMonkey as primary prey (always).
-     * It only hunts Capybara when nearly starving (food < PFV/3),
-     * creating emergency competition with Jaguar (Task 1).
-     */
-    @Override
-    protected boolean canEat(Class<?> preyClass)
-    {
-        if(preyClass == Capybara.class) {
-            return foodLevel < PREY_FOOD_VALUE / 3;  // emergency: only when nearly starving
-        }
-        return true;  // primary prey (HowlerMonkey): always willing to eat
-    }
-
     @Override
-    protected int getFoodValue(Class<?> preyClass)
-    {
-        if(preyClass == HowlerMonkey.class) return PREY_FOOD_VALUE;
-        if(preyClass == Capybara.class) return PREY_FOOD_VALUE;  // competes with jaguar
-        return 0;
-    }
+    public boolean usesHunger() { return true; }
 
     @Override
-    public boolean usesHunger() { return true; }
+    public Species getSpecies() { return Species.HARPY_EAGLE; }
 
     @Override
     public int getMaxAge() { return MAX_AGE; }
@@ -109,5 +107,8 @@ public class HarpyEagle extends Animal
     protected int getMaxLitterSize() { return MAX_LITTER_SIZE; }
 
     @Override
-    protected Animal createYoung(Location location) { return new HarpyEagle(false, location); }
+    protected Animal createYoung() { return new HarpyEagle(false, null); }
+
+    @Override
+    protected Random getBirthRandom() { return rand; }
 }
@@ -1,10 +1,134 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Runs the simulation in headless mode (no GUI) for analysis.
  * Output is CSV on stdout: step,fern,capybara,howlermonkey,jaguar,harpyeagle
+ * Arguments (any order):
+ *   two-phase  use the two-phase step model
+ *   off-heap-index  keep the field's index of cells, masks and entity
+ *              state in direct memory; the entity objects stay on the heap
+ *   chunked    store the field's grid in chunks allocated where occupied
+ *   seed=N     start from the population decided by seed N
+ *   raster=F   start from the population in raster file F
+ *   raster-out=F  save the population at the end of the run to raster
+ *              file F, to start later runs from
+ *   torus      join the opposite edges of the field
+ *   halo       bounded edges, with the field laid out inside a ring of
+ *              sentinel cells so neighbours need no bounds tests
+ *   counter-rng  draw every random decision from a hash of the seed,
+ *              step and actor, independent of thread scheduling
+ *   order=O    act the entities in order O: insertion (default),
+ *              row-major, morton or shuffled
+ *   scheduled  carry dormant entities over instead of acting them
+ *   fast-forward  as scheduled, setting the plants of tiles far from
+ *              animals and rain aside and ageing them in one go later
+ *   pooled     reuse dead animals and plants for births
+ *   verify-pool  as pooled, checking for stale references every step
+ *   steady     stop early once the populations settle
+ *   analytics  print rolling statistics, periods and phase lags
+ *   density=F  write multi-resolution density frames to file F every 10 steps
+ *   archive=F  write the counts and a grid snapshot every 50 steps to
+ *              run archive F
+ *   diagnostics=F  dump every 10th live entity every 50 steps to file F
+ *              (see Diagnostics)
+ *   stats=P    print the per-step summaries from a background thread,
+ *              with backpressure P (block, drop or sample)
+ *   steps=N    run for at most N steps (default 500)
  */
 public class HeadlessRunner {
-    public static void main(String[] args) {
-        Simulator sim = new Simulator(true);
-        sim.simulate(500);
+    public static void main(String[] args) throws IOException {
+        List<String> options = Arrays.asList(args);
+        FieldStorage storage = options.contains("off-heap-index") ? FieldStorage.OFF_HEAP_INDEX
+                             : options.contains("chunked") ? FieldStorage.CHUNKED : FieldStorage.ARRAY;
+        String raster = option(args, "raster=", null);
+        String seedOption = option(args, "seed=", null);
+        // Started below from the seed or raster, if given.
+        Simulator sim = raster != null || seedOption != null ? Simulator.unpopulated(80, 120, true, storage)
+                                                             : new Simulator(80, 120, true, storage);
+        if(options.contains("two-phase")) {
+            sim.setStepModel(StepModel.TWO_PHASE);
+        }
+        if(options.contains("torus")) {
+            sim.setTopology(Topology.TORUS);
+        }
+        else if(options.contains("halo")) {
+            sim.setTopology(Topology.HALO);
+        }
+        if(options.contains("counter-rng")) {
+            sim.setCounterRandom(true);
+        }
+        String order = option(args, "order=", null);
+        if(order != null) {
+            sim.setUpdateOrder(UpdateOrder.valueOf(order.toUpperCase().replace('-', '_')));
+        }
+        if(options.contains("scheduled")) {
+            sim.setScheduled(true);
+        }
+        if(options.contains("fast-forward")) {
+            sim.setFastForward(true);
+        }
+        if(options.contains("pooled") || options.contains("verify-pool")) {
+            sim.setPooling(true, options.contains("verify-pool"));
+        }
+        if(options.contains("steady")) {
+            sim.setSteadyStateDetector(new SteadyStateDetector());
+        }
+        if(options.contains("analytics")) {
+            sim.addStepListener(new PopulationAnalytics());
+        }
+        String density = option(args, "density=", null);
+        String archive = option(args, "archive=", null);
+        String diagnostics = option(args, "diagnostics=", null);
+        String stats = option(args, "stats=", null);
+        // The sinks are ours to close, not the simulator's; those not
+        // asked for are null.
+        try(DensityPyramid.Writer densityWriter = density != null ? DensityPyramid.writer(Path.of(density)) : null;
+            RunArchive.Writer archiveWriter = archive != null ? RunArchive.writer(Path.of(archive), 50) : null;
+            Diagnostics.Writer diagnosticsWriter = diagnostics != null ? Diagnostics.writer(Path.of(diagnostics))
+                                                                        : null;
+            StatsPipeline pipeline = stats != null
+                ? new StatsPipeline(1024, StatsPipeline.Backpressure.valueOf(stats.toUpperCase()),
+                                    StatsPipeline.printer(System.out))
+                : null) {
+            if(densityWriter != null) {
+                sim.addStepListener(new DensityPyramid(10, densityWriter));
+            }
+            if(archiveWriter != null) {
+                sim.addStepListener(archiveWriter);
+            }
+            if(diagnosticsWriter != null) {
+                Diagnostics dumps = new Diagnostics(50, 1 << 20, diagnosticsWriter);
+                dumps.setStride(10);
+                sim.addStepListener(dumps);
+            }
+            sim.setStatsPipeline(pipeline);
+            long seed = seedOption != null ? Long.parseLong(seedOption) : 0;
+            if(raster != null) {
+                sim.load(Path.of(raster), seed);
+            }
+            else if(seedOption != null) {
+                sim.reset(seed);
+            }
+            sim.simulate(Integer.parseInt(option(args, "steps=", "500")));
+            String rasterOut = option(args, "raster-out=", null);
+            if(rasterOut != null) {
+                sim.save(Path.of(rasterOut));
+            }
+        }
+    }
+
+    /**
+     * Return the value of a "name=value" argument, or the default.
+     */
+    static String option(String[] args, String prefix, String defaultValue) {
+        for(String arg : args) {
+            if(arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
+            }
+        }
+        return defaultValue;
     }
 }
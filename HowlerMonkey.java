@@ -1,4 +1,3 @@
-import java.util.List;
 import java.util.Random;
 
 /**
@@ -11,40 +10,52 @@ public class HowlerMonkey extends Animal
     private static final int MAX_AGE = 80;
     private static final double BREEDING_PROBABILITY = 0.10;
     private static final int MAX_LITTER_SIZE = 1;
-    private static final int FRUIT_FOOD_VALUE = 14;
+    static final int FRUIT_FOOD_VALUE = 14;
     private static final Random rand = Randomizer.getRandom();
 
     public HowlerMonkey(boolean randomAge, Location location)
     {
-        super(location);
-        foodLevel = rand.nextInt(FRUIT_FOOD_VALUE) + 4;
+        this(randomAge, location, rand);
+    }
+
+    /**
+     * Create a howler monkey whose initial state is drawn from the given generator.
+     */
+    public HowlerMonkey(boolean randomAge, Location location, Random rand)
+    {
+        super(location, rand);
+        newborn(rand);
         if(randomAge) {
-            age = rand.nextInt(MAX_AGE);
+            setAge(rand.nextInt(MAX_AGE));
         }
     }
 
+    @Override
+    protected void newborn(Random rand)
+    {
+        setFoodLevel(rand.nextInt(FRUIT_FOOD_VALUE) + 4);
+    }
+
     @Override
     public void act(Field currentField, Field nextFieldState, boolean isNight, Weather weather)
     {
         incrementAge();
         incrementHunger();
         if(isAlive()) {
-            List<Location> freeLocations =
-                nextFieldState.getFreeAdjacentLocations(getLocation());
-            if(!freeLocations.isEmpty()) {
-                giveBirth(currentField, nextFieldState, freeLocations);
+            FreeCells free = FreeCells.around(nextFieldState, getCell());
+            if(!free.isEmpty()) {
+                giveBirth(currentField, nextFieldState, free);
             }
-            Location nextLocation = findFood(currentField);
-            // Guard: food's current-field location may already be occupied in nextFieldState.
-            if(nextLocation != null && nextFieldState.getAnimalAt(nextLocation) != null) {
-                nextLocation = freeLocations.isEmpty() ? null : freeLocations.remove(0);
+            int nextCell = findFood(currentField);
+            // Guard: food's current-field cell may already be occupied in nextFieldState.
+            if(nextCell >= 0 && nextFieldState.getAnimalAt(nextCell) != null) {
+                nextCell = free.take();
             }
-            if(nextLocation == null && !freeLocations.isEmpty()) {
-                nextLocation = freeLocations.remove(0);
+            if(nextCell < 0) {
+                nextCell = free.take();
             }
-            if(nextLocation != null) {
-                setLocation(nextLocation);
-                nextFieldState.placeAnimal(this, nextLocation);
+            if(nextCell >= 0) {
+                                nextFieldState.placeAnimal(this, nextCell);
             } else {
                 setDead();
             }
@@ -61,20 +72,10 @@ public class HowlerMonkey extends Animal
     protected int getHungerThreshold() { return FRUIT_FOOD_VALUE / 2; }
 
     @Override
-    public boolean isEdibleBy(Animal predator)
-    {
-        return predator instanceof HarpyEagle;
-    }
-
-    @Override
-    protected int getFoodValue(Class<?> preyClass)
-    {
-        if(preyClass == FruitTree.class) return FRUIT_FOOD_VALUE;
-        return 0;
-    }
+    public boolean usesHunger() { return true; }
 
     @Override
-    public boolean usesHunger() { return true; }
+    public Species getSpecies() { return Species.HOWLER_MONKEY; }
 
     @Override
     public int getMaxAge() { return MAX_AGE; }
@@ -89,5 +90,8 @@ public class HowlerMonkey extends Animal
     protected int getMaxLitterSize() { return MAX_LITTER_SIZE; }
 
     @Override
-    protected Animal createYoung(Location location) { return new HowlerMonkey(false, location); }
+    protected Animal createYoung() { return new HowlerMonkey(false, null); }
+
+    @Override
+    protected Random getBirthRandom() { return rand; }
 }
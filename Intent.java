@@ -0,0 +1,13 @@
+/**
+ * What an animal intends to do during one step. Intents are produced by
+ * the plan phase of the two-phase step model and applied by its commit
+ * phase.
+ *
+ * @param actor The animal.
+ * @param food The cell it wants to feed at, or -1 if it does not.
+ * @param births How many young it will produce if there is room.
+ * @param resting Whether it stays where it is instead of moving.
+ */
+public record Intent(Animal actor, int food, int births, boolean resting)
+{
+}
@@ -0,0 +1,428 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long-lived local server that runs simulation jobs, so that many runs
+ * share one warmed-up JVM instead of starting one per HeadlessRunner.
+ * It listens over HTTP on the loopback address only.
+ *
+ *   POST   /jobs?steps=500&depth=80&width=120&seed=1&two-phase&scheduled&pooled&off-heap-index&torus
+ *              submit a job; all parameters are optional, chunked
+ *              (like off-heap-index) chooses the storage and torus or
+ *              halo the topology. Replies with the job's id.
+ *   GET    /jobs              list the jobs and their states
+ *   GET    /jobs/ID           the job's state, step and latest counts
+ *   GET    /jobs/ID/stats     stream the job's per-step counts as CSV
+ *                             (step,fern,fruittree,capybara,howlermonkey,
+ *                             jaguar,harpyeagle) until it ends
+ *   DELETE /jobs/ID           cancel the job
+ *
+ * Each job runs on a virtual thread when the JVM has them (Java 21 and
+ * later) and on a pooled platform thread otherwise; at most the given
+ * number of jobs run at once, the rest wait their turn. A job's
+ * simulation is built when it starts and dropped when it ends. A job
+ * with a seed draws counter-based random numbers (see Randomizer), so
+ * it gives the same counts however many jobs run beside it. An ended
+ * job is forgotten ten minutes after it ends.
+ *
+ * Usage: java JobServer [port] [concurrent jobs]
+ */
+public class JobServer
+{
+    // The most per-step lines kept for each job; older ones are dropped.
+    private static final int MAX_LINES = 100_000;
+    // How long an ended job is kept for its state and lines to be read.
+    private static final long RETENTION_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    /** The states of a job. */
+    public enum State { QUEUED, RUNNING, DONE, CANCELLED, FAILED }
+
+    // The jobs by id.
+    private final Map<Integer, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    // Runs the jobs, and bounds how many run at once.
+    private final ExecutorService jobThreads;
+    private final Semaphore running;
+    private final HttpServer server;
+
+    public static void main(String[] args) throws IOException
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8470;
+        int concurrent = args.length > 1 ? Integer.parseInt(args[1])
+                                         : Runtime.getRuntime().availableProcessors();
+        JobServer jobServer = new JobServer(port, concurrent);
+        jobServer.start();
+        System.out.println("Listening on http://localhost:" + jobServer.getPort() + "/jobs");
+    }
+
+    /**
+     * Create a server.
+     * @param port The port to listen on, or 0 for any free port.
+     * @param concurrent The most jobs to run at once.
+     */
+    public JobServer(int port, int concurrent) throws IOException
+    {
+        running = new Semaphore(concurrent);
+        jobThreads = jobExecutor(concurrent);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/jobs", this::handle);
+        // Streams block until their job ends, so give each request a thread.
+        server.setExecutor(Executors.newCachedThreadPool());
+    }
+
+    /**
+     * Start answering requests.
+     */
+    public void start()
+    {
+        server.start();
+    }
+
+    /**
+     * Stop answering requests and cancel all jobs.
+     */
+    public void stop()
+    {
+        server.stop(0);
+        jobThreads.shutdownNow();
+    }
+
+    /**
+     * Return the port the server listens on.
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Return an executor with a virtual thread per job if the JVM has
+     * them, or else a pool of the given size.
+     */
+    private static ExecutorService jobExecutor(int concurrent)
+    {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch(ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(concurrent);
+        }
+    }
+
+    /**
+     * Answer a request under /jobs.
+     */
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        jobs.values().removeIf(job -> job.endedBefore(RETENTION_NANOS));
+        try {
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            String method = exchange.getRequestMethod();
+            // path is "", "jobs", then the id and sub-resource if any.
+            if(path.length == 2) {
+                if(method.equals("POST")) {
+                    Job job = submit(parameters(exchange.getRequestURI()));
+                    reply(exchange, 201, job.id + "\n");
+                }
+                else {
+                    StringBuilder sb = new StringBuilder();
+                    for(Job job : jobs.values()) {
+                        sb.append(job.describe()).append('\n');
+                    }
+                    reply(exchange, 200, sb.toString());
+                }
+                return;
+            }
+            Job job = jobs.get(Integer.parseInt(path[2]));
+            if(job == null) {
+                reply(exchange, 404, "No such job\n");
+            }
+            else if(method.equals("DELETE")) {
+                job.cancel();
+                reply(exchange, 200, job.describe() + "\n");
+            }
+            else if(path.length > 3 && path[3].equals("stats")) {
+                stream(exchange, job);
+            }
+            else {
+                reply(exchange, 200, job.describe() + "\n" + job.latest() + "\n");
+            }
+        }
+        catch(IllegalArgumentException e) {
+            reply(exchange, 400, e.getMessage() + "\n");
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Return the query parameters of a request; a parameter without a
+     * value maps to "true".
+     */
+    private static Map<String, String> parameters(URI uri)
+    {
+        Map<String, String> parameters = new HashMap<>();
+        String query = uri.getQuery();
+        if(query != null) {
+            for(String parameter : query.split("&")) {
+                int equals = parameter.indexOf('=');
+                if(equals < 0) {
+                    parameters.put(parameter, "true");
+                }
+                else {
+                    parameters.put(parameter.substring(0, equals), parameter.substring(equals + 1));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Create a job from the request's parameters and queue it.
+     */
+    private Job submit(Map<String, String> parameters)
+    {
+        Job job = new Job(nextId.getAndIncrement(), parameters);
+        jobs.put(job.id, job);
+        job.future = jobThreads.submit(job::run);
+        return job;
+    }
+
+    /**
+     * Send the job's per-step lines as they are produced, until it ends.
+     */
+    private void stream(HttpExchange exchange, Job job) throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", "text/csv");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        long next = 0;
+        try {
+            while(true) {
+                List<String> lines = new ArrayList<>();
+                next = job.awaitLines(next, lines);
+                if(lines.isEmpty()) {
+                    break;
+                }
+                for(String line : lines) {
+                    out.write(line.getBytes(StandardCharsets.UTF_8));
+                    out.write('\n');
+                }
+                out.flush();
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void reply(HttpExchange exchange, int status, String body) throws IOException
+    {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    /**
+     * A simulation run and its per-step counts.
+     */
+    private class Job implements StepListener
+    {
+        private final int id;
+        private final int steps;
+        private final int depth;
+        private final int width;
+        private final FieldStorage storage;
+        private final Long seed;
+        private final Map<String, String> parameters;
+        private Future<?> future;
+        private volatile State state = State.QUEUED;
+        private volatile String error;
+        // When the job ended (System.nanoTime), once it has.
+        private volatile long endedAt;
+        // The per-step lines kept, the first being line number dropped.
+        private final List<String> lines = new ArrayList<>();
+        private long dropped;
+        private int step;
+
+        /**
+         * Create a job from the request's parameters, which are checked
+         * here; its simulation is built only when it starts running.
+         */
+        Job(int id, Map<String, String> parameters)
+        {
+            this.id = id;
+            try {
+                steps = Integer.parseInt(parameters.getOrDefault("steps", "500"));
+                depth = Integer.parseInt(parameters.getOrDefault("depth", "80"));
+                width = Integer.parseInt(parameters.getOrDefault("width", "120"));
+                seed = parameters.containsKey("seed") ? Long.valueOf(parameters.get("seed")) : null;
+            }
+            catch(NumberFormatException e) {
+                throw new IllegalArgumentException("Bad parameter: " + e.getMessage());
+            }
+            storage = parameters.containsKey("off-heap-index") ? FieldStorage.OFF_HEAP_INDEX
+                    : parameters.containsKey("chunked") ? FieldStorage.CHUNKED : FieldStorage.ARRAY;
+            this.parameters = parameters;
+        }
+
+        /**
+         * Build the simulation the parameters describe.
+         */
+        private Simulator createSimulator()
+        {
+            Simulator simulator;
+            if(seed != null) {
+                simulator = Simulator.unpopulated(depth, width, true, storage);
+                // Keyed draws keep the run independent of other jobs.
+                simulator.setCounterRandom(true);
+                simulator.reset(seed);
+            }
+            else {
+                simulator = new Simulator(depth, width, true, storage);
+            }
+            simulator.setQuiet(true);
+            if(parameters.containsKey("pooled")) {
+                simulator.setPooling(true, false);
+            }
+            if(parameters.containsKey("two-phase")) {
+                simulator.setStepModel(StepModel.TWO_PHASE);
+            }
+            if(parameters.containsKey("torus")) {
+                simulator.setTopology(Topology.TORUS);
+            }
+            else if(parameters.containsKey("halo")) {
+                simulator.setTopology(Topology.HALO);
+            }
+            if(parameters.containsKey("scheduled")) {
+                simulator.setScheduled(true);
+            }
+            simulator.addStepListener(this);
+            return simulator;
+        }
+
+        /**
+         * Run the simulation once a slot is free. The simulation exists
+         * only while the job runs.
+         */
+        void run()
+        {
+            try {
+                running.acquire();
+            }
+            catch(InterruptedException e) {
+                finish(State.CANCELLED);
+                return;
+            }
+            try {
+                if(state != State.QUEUED) {
+                    return;
+                }
+                state = State.RUNNING;
+                createSimulator().simulate(steps);
+                finish(Thread.currentThread().isInterrupted() ? State.CANCELLED : State.DONE);
+            }
+            catch(Throwable e) {
+                // Including errors such as running out of memory, which
+                // would otherwise leave the job running for ever.
+                error = e.toString();
+                finish(State.FAILED);
+            }
+            finally {
+                running.release();
+            }
+        }
+
+        /**
+         * Stop the job, whether it is queued or running.
+         */
+        void cancel()
+        {
+            if(future != null) {
+                future.cancel(true);
+            }
+            finish(State.CANCELLED);
+        }
+
+        @Override
+        public void stepCompleted(int step, Field field)
+        {
+            StringBuilder line = new StringBuilder().append(step);
+            for(int count : field.getSpeciesCounts()) {
+                line.append(',').append(count);
+            }
+            synchronized(this) {
+                this.step = step;
+                lines.add(line.toString());
+                if(lines.size() > MAX_LINES) {
+                    lines.subList(0, MAX_LINES / 2).clear();
+                    dropped += MAX_LINES / 2;
+                }
+                notifyAll();
+            }
+        }
+
+        private synchronized void finish(State end)
+        {
+            if(state == State.QUEUED || state == State.RUNNING) {
+                state = end;
+                endedAt = System.nanoTime();
+            }
+            notifyAll();
+        }
+
+        /**
+         * Return whether the job ended longer ago than the given time.
+         */
+        boolean endedBefore(long nanosAgo)
+        {
+            return state != State.QUEUED && state != State.RUNNING && System.nanoTime() - endedAt > nanosAgo;
+        }
+
+        /**
+         * Wait for lines from the given line number on, and add them to
+         * the list; add none once the job has ended and all are sent.
+         * @return The number of the line after the last one added.
+         */
+        synchronized long awaitLines(long from, List<String> into) throws InterruptedException
+        {
+            while(from >= dropped + lines.size() && (state == State.QUEUED || state == State.RUNNING)) {
+                wait();
+            }
+            long start = Math.max(from, dropped);
+            for(long n = start; n < dropped + lines.size(); n++) {
+                into.add(lines.get((int) (n - dropped)));
+            }
+            return dropped + lines.size();
+        }
+
+        synchronized String latest()
+        {
+            return lines.isEmpty() ? "" : lines.get(lines.size() - 1);
+        }
+
+        synchronized String describe()
+        {
+            return id + " " + state + " step " + step + "/" + steps + (error != null ? " " + error : "");
+        }
+    }
+}
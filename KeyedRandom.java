@@ -0,0 +1,39 @@
+import java.util.Random;
+
+/**
+ * A random generator handed out by Randomizer. Normally it behaves as a
+ * plain Random. On a thread whose draws are keyed (see DrawKeys) each
+ * value it gives is instead a hash of the key of the actor whose turn
+ * it is and the number of values that actor has drawn so far, so that
+ * no value depends on the order in which threads run.
+ */
+public class KeyedRandom extends Random
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Create a generator with the given seed for normal mode.
+     */
+    public KeyedRandom(long seed)
+    {
+        super(seed);
+    }
+
+    /**
+     * Create a generator with an unpredictable seed for normal mode.
+     */
+    public KeyedRandom()
+    {
+        super();
+    }
+
+    @Override
+    protected int next(int bits)
+    {
+        long[] key = Randomizer.threadKey();
+        if(key != null) {
+            return (int) (Randomizer.nextKeyed(key) >>> (64 - bits));
+        }
+        return super.next(bits);
+    }
+}
@@ -0,0 +1,190 @@
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The square neighbourhood of a given radius around a cell, with a bank
+ * of precomputed random orderings of its offsets.
+ * 
+ * Neighbour queries must return cells in random order. Rather than
+ * shuffling every result, a query picks one of the precomputed orderings
+ * with a single random draw and walks its offsets, skipping any that
+ * fall outside the grid.
+ */
+public class Neighbourhood
+{
+    // The number of orderings kept for each neighbourhood.
+    private static final int PERMUTATIONS = 256;
+    // Neighbourhoods already built, by radius. They depend only on the
+    // radius, so are shared by every field.
+    private static final Map<Integer, Neighbourhood> cache = new ConcurrentHashMap<>();
+
+    // The radius of the neighbourhood.
+    private final int radius;
+    // Row and column offsets of each ordering.
+    private final int[][] rowOffsets, colOffsets;
+
+    /**
+     * Return the neighbourhood of the given radius.
+     */
+    public static Neighbourhood of(int radius)
+    {
+        return cache.computeIfAbsent(radius, Neighbourhood::new);
+    }
+
+    /**
+     * Build the neighbourhood of the given radius and its orderings.
+     */
+    private Neighbourhood(int radius)
+    {
+        this.radius = radius;
+        int size = Field.neighbourhoodSize(radius);
+        int[] rows = new int[size];
+        int[] cols = new int[size];
+        int count = 0;
+        for(int roffset = -radius; roffset <= radius; roffset++) {
+            for(int coffset = -radius; coffset <= radius; coffset++) {
+                if(roffset != 0 || coffset != 0) {
+                    rows[count] = roffset;
+                    cols[count] = coffset;
+                    count++;
+                }
+            }
+        }
+        // A fixed seed keeps the bank identical between runs.
+        Random rand = new Random(radius);
+        rowOffsets = new int[PERMUTATIONS][];
+        colOffsets = new int[PERMUTATIONS][];
+        int[] order = new int[size];
+        for(int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        for(int p = 0; p < PERMUTATIONS; p++) {
+            for(int i = size; i > 1; i--) {
+                int j = rand.nextInt(i);
+                int tmp = order[i - 1];
+                order[i - 1] = order[j];
+                order[j] = tmp;
+            }
+            rowOffsets[p] = new int[size];
+            colOffsets[p] = new int[size];
+            for(int i = 0; i < size; i++) {
+                rowOffsets[p][i] = rows[order[i]];
+                colOffsets[p][i] = cols[order[i]];
+            }
+        }
+    }
+
+    /**
+     * Write the cells of this neighbourhood around the given position
+     * into the buffer, in one of the precomputed random orders.
+     * @param row The row of the centre.
+     * @param col The column of the centre.
+     * @param depth The depth of the grid.
+     * @param width The width of the grid.
+     * @param rand Supplies the choice of ordering.
+     * @param cells Receives the cells in row * width + col form.
+     * @return The number of cells written.
+     */
+    public int cells(int row, int col, int depth, int width, Random rand, int[] cells)
+    {
+        int p = rand.nextInt(PERMUTATIONS);
+        int[] rows = rowOffsets[p];
+        int[] cols = colOffsets[p];
+        int count = 0;
+        if(row >= radius && row + radius < depth && col >= radius && col + radius < width) {
+            // Interior cell: every offset is within the grid.
+            int centre = row * width + col;
+            for(int i = 0; i < rows.length; i++) {
+                cells[count++] = centre + rows[i] * width + cols[i];
+            }
+        }
+        else {
+            for(int i = 0; i < rows.length; i++) {
+                int nextRow = row + rows[i];
+                int nextCol = col + cols[i];
+                if(nextRow >= 0 && nextRow < depth && nextCol >= 0 && nextCol < width) {
+                    cells[count++] = nextRow * width + nextCol;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * As cells, but on a grid whose opposite edges are joined.
+     * @throws IllegalArgumentException if the grid is smaller than the
+     *         neighbourhood, which would list some cells twice.
+     */
+    public int wrappedCells(int row, int col, int depth, int width, Random rand, int[] cells)
+    {
+        int side = 2 * radius + 1;
+        if(side > depth || side > width) {
+            throw new IllegalArgumentException("A " + depth + " x " + width
+                                               + " grid cannot wrap a neighbourhood of radius " + radius);
+        }
+        if(row >= radius && row + radius < depth && col >= radius && col + radius < width) {
+            return cells(row, col, depth, width, rand, cells);
+        }
+        int p = rand.nextInt(PERMUTATIONS);
+        int[] rows = rowOffsets[p];
+        int[] cols = colOffsets[p];
+        for(int i = 0; i < rows.length; i++) {
+            int nextRow = row + rows[i];
+            int nextCol = col + cols[i];
+            if(nextRow < 0) {
+                nextRow += depth;
+            }
+            else if(nextRow >= depth) {
+                nextRow -= depth;
+            }
+            if(nextCol < 0) {
+                nextCol += width;
+            }
+            else if(nextCol >= width) {
+                nextCol -= width;
+            }
+            cells[i] = nextRow * width + nextCol;
+        }
+        return rows.length;
+    }
+
+    /**
+     * As cells, but on a grid laid out with a border of sentinel cells
+     * on every side (see Field), writing cells of the padded grid. When
+     * the border is as wide as the radius, every offset is read without
+     * a bounds test and the cells of the border are dropped by their
+     * sentinel bit; wider neighbourhoods are bounds-tested. Gives the
+     * same positions in the same order as cells.
+     * @param border The width of the border.
+     * @param borderBits Set for the cells of the border.
+     */
+    public int paddedCells(int row, int col, int depth, int width, int border, PagedBits borderBits,
+                           Random rand, int[] cells)
+    {
+        int p = rand.nextInt(PERMUTATIONS);
+        int[] rows = rowOffsets[p];
+        int[] cols = colOffsets[p];
+        int stride = width + 2 * border;
+        int centre = (row + border) * stride + col + border;
+        int count = 0;
+        if(radius <= border) {
+            for(int i = 0; i < rows.length; i++) {
+                int cell = centre + rows[i] * stride + cols[i];
+                cells[count] = cell;
+                // Keep the cell unless it is a sentinel.
+                count += 1 - borderBits.bit(cell);
+            }
+        }
+        else {
+            for(int i = 0; i < rows.length; i++) {
+                int nextRow = row + rows[i];
+                int nextCol = col + cols[i];
+                if(nextRow >= 0 && nextRow < depth && nextCol >= 0 && nextCol < width) {
+                    cells[count++] = centre + rows[i] * stride + cols[i];
+                }
+            }
+        }
+        return count;
+    }
+}
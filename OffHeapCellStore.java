@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A cell store whose index of cells lives outside the Java heap, for
+ * fields too large to hold as heap arrays but sparsely populated.
+ * 
+ * Each cell holds a four-byte handle in direct or memory-mapped buffers;
+ * zero means empty. A handle refers to a slot in a table on the heap
+ * holding the value itself. The heap therefore grows with the number of
+ * occupied cells, not with the area of the field. Freed slots are
+ * reused, and clearing the store only touches occupied cells.
+ * The values are entity objects on the heap, so a field only fits if
+ * its population does; their age, food level and gender are kept off
+ * the heap in the field's EntitySlots.
+ * 
+ * Direct buffers count against -XX:MaxDirectMemorySize. Memory-mapped
+ * buffers are backed by a file which is deleted once mapped, so the
+ * operating system may page the grid out.
+ *
+ * @param <T> The type of value stored.
+ */
+public class OffHeapCellStore<T> implements CellStore<T>
+{
+    // Cells per buffer, keeping each buffer well under 2GB.
+    private static final int SEGMENT_SHIFT = 27;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    // The handle of each cell.
+    private final IntBuffer[] segments;
+    // The value and the cell of each slot; slot s has handle s + 1.
+    private Object[] values = new Object[1024];
+    private int[] cells = new int[1024];
+    // The number of slots ever handed out since the last clear.
+    private int slotCount;
+    // Slots that have been freed, available for reuse.
+    private int[] freeSlots = new int[1024];
+    private int freeCount;
+
+    /**
+     * Create a store for the given number of cells.
+     * @param cellCount The number of cells.
+     * @param directory Where to create the backing file for a
+     *                  memory-mapped grid, or null for direct memory.
+     */
+    public OffHeapCellStore(int cellCount, Path directory)
+    {
+        int segmentCount = (int) (((long) cellCount + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        segments = new IntBuffer[segmentCount];
+        try(FileChannel channel = directory == null ? null : openBackingFile(directory)) {
+            for(int s = 0; s < segmentCount; s++) {
+                int segmentCells = Math.min(SEGMENT_MASK + 1, cellCount - (s << SEGMENT_SHIFT));
+                ByteBuffer bytes;
+                if(channel == null) {
+                    bytes = ByteBuffer.allocateDirect(segmentCells * 4);
+                }
+                else {
+                    bytes = channel.map(FileChannel.MapMode.READ_WRITE,
+                                        (long) s << (SEGMENT_SHIFT + 2), segmentCells * 4L);
+                }
+                segments[s] = bytes.order(ByteOrder.nativeOrder()).asIntBuffer();
+            }
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Create a new, empty backing file which disappears when closed.
+     */
+    static FileChannel openBackingFile(Path directory) throws IOException
+    {
+        Path file = Files.createTempFile(directory, "field", ".grid");
+        return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int cell)
+    {
+        int handle = segments[cell >>> SEGMENT_SHIFT].get(cell & SEGMENT_MASK);
+        return handle == 0 ? null : (T) values[handle - 1];
+    }
+
+    @Override
+    public void set(int cell, T value)
+    {
+        IntBuffer segment = segments[cell >>> SEGMENT_SHIFT];
+        int handle = segment.get(cell & SEGMENT_MASK);
+        if(handle != 0) {
+            if(value != null) {
+                values[handle - 1] = value;
+            }
+            else {
+                values[handle - 1] = null;
+                freeSlot(handle - 1);
+                segment.put(cell & SEGMENT_MASK, 0);
+            }
+        }
+        else if(value != null) {
+            int slot = allocateSlot();
+            values[slot] = value;
+            cells[slot] = cell;
+            segment.put(cell & SEGMENT_MASK, slot + 1);
+        }
+    }
+
+    @Override
+    public void clear()
+    {
+        for(int slot = 0; slot < slotCount; slot++) {
+            if(values[slot] != null) {
+                int cell = cells[slot];
+                segments[cell >>> SEGMENT_SHIFT].put(cell & SEGMENT_MASK, 0);
+                values[slot] = null;
+            }
+        }
+        slotCount = 0;
+        freeCount = 0;
+    }
+
+    /**
+     * Return an unused slot, growing the slot table if necessary.
+     */
+    private int allocateSlot()
+    {
+        if(freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if(slotCount == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+            cells = Arrays.copyOf(cells, cells.length * 2);
+        }
+        return slotCount++;
+    }
+
+    /**
+     * Make a slot available for reuse.
+     */
+    private void freeSlot(int slot)
+    {
+        if(freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+}
@@ -0,0 +1,177 @@
+import java.nio.LongBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * One bit per cell of a field, held in pages that are allocated when a
+ * bit in them is first set, so that a large, mostly empty field costs
+ * memory only where it is occupied.
+ */
+public class PagedBits
+{
+    // Longs per page; each page covers 1 << (PAGE_SHIFT + 6) cells.
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+    // Stands in for every page not yet allocated; never written.
+    private static final long[] EMPTY = new long[1 << PAGE_SHIFT];
+
+    // The pages, by page number; unused by OffHeap.
+    private final long[][] pages;
+
+    /**
+     * Create a set of bits for the given number of cells, all clear.
+     */
+    public PagedBits(int cells)
+    {
+        // Room for the three-bit windows read past the last cell.
+        int words = (cells + 2) / 64 + 1;
+        pages = new long[(words + PAGE_MASK) >>> PAGE_SHIFT][];
+        Arrays.fill(pages, EMPTY);
+    }
+
+    public void set(int cell)
+    {
+        int word = cell >>> 6;
+        long[] page = pages[word >>> PAGE_SHIFT];
+        if(page == EMPTY) {
+            page = new long[PAGE_MASK + 1];
+            pages[word >>> PAGE_SHIFT] = page;
+        }
+        page[word & PAGE_MASK] |= 1L << cell;
+    }
+
+    public void clear(int cell)
+    {
+        int word = cell >>> 6;
+        long[] page = pages[word >>> PAGE_SHIFT];
+        if(page != EMPTY) {
+            page[word & PAGE_MASK] &= ~(1L << cell);
+        }
+    }
+
+    public boolean test(int cell)
+    {
+        return (word(cell >>> 6) & 1L << cell) != 0;
+    }
+
+    /**
+     * Return the bit of the given cell as 0 or 1, for counting without
+     * a branch.
+     */
+    public int bit(int cell)
+    {
+        return (int) (word(cell >>> 6) >>> cell) & 1;
+    }
+
+    /**
+     * Return the three bits starting at the given cell, which may be -1.
+     */
+    public int threeBits(int start)
+    {
+        if(start < 0) {
+            return (int) (word(0) << 1) & 0b110;
+        }
+        int word = start >>> 6;
+        int offset = start & 63;
+        long window = word(word) >>> offset;
+        if(offset > 61) {
+            window |= word(word + 1) << (64 - offset);
+        }
+        return (int) window & 0b111;
+    }
+
+    /**
+     * Clear every bit.
+     * @param release true to free the pages, false to keep them for reuse.
+     */
+    public void clearAll(boolean release)
+    {
+        for(int p = 0; p < pages.length; p++) {
+            if(pages[p] != EMPTY) {
+                if(release) {
+                    pages[p] = EMPTY;
+                }
+                else {
+                    Arrays.fill(pages[p], 0);
+                }
+            }
+        }
+    }
+
+    protected long word(int index)
+    {
+        return pages[index >>> PAGE_SHIFT][index & PAGE_MASK];
+    }
+
+    /**
+     * Bits whose pages are held outside the heap: direct buffers, each
+     * allocated when a bit in it is first set, or a file mapped whole
+     * (which the operating system fills in only where written).
+     */
+    public static class OffHeap extends PagedBits
+    {
+        // The pages, by page number; null where none is allocated yet.
+        private final LongBuffer[] offHeapPages;
+
+        /**
+         * Create a set of bits for the given number of cells, all clear.
+         * @param directory Where to map the bits from, or null for
+         *                  direct memory.
+         */
+        public OffHeap(int cells, Path directory)
+        {
+            super(0);
+            int words = (cells + 2) / 64 + 1;
+            offHeapPages = new LongBuffer[(words + PAGE_MASK) >>> PAGE_SHIFT];
+            if(directory != null) {
+                LongBuffer all = FieldStorage.allocate((long) offHeapPages.length << (PAGE_SHIFT + 3), directory)
+                                             .asLongBuffer();
+                for(int p = 0; p < offHeapPages.length; p++) {
+                    offHeapPages[p] = all.slice(p << PAGE_SHIFT, PAGE_MASK + 1);
+                }
+            }
+        }
+
+        @Override
+        public void set(int cell)
+        {
+            int word = cell >>> 6;
+            LongBuffer page = offHeapPages[word >>> PAGE_SHIFT];
+            if(page == null) {
+                page = FieldStorage.allocate(8 << PAGE_SHIFT, null).asLongBuffer();
+                offHeapPages[word >>> PAGE_SHIFT] = page;
+            }
+            page.put(word & PAGE_MASK, page.get(word & PAGE_MASK) | 1L << cell);
+        }
+
+        @Override
+        public void clear(int cell)
+        {
+            int word = cell >>> 6;
+            LongBuffer page = offHeapPages[word >>> PAGE_SHIFT];
+            if(page != null) {
+                page.put(word & PAGE_MASK, page.get(word & PAGE_MASK) & ~(1L << cell));
+            }
+        }
+
+        @Override
+        public void clearAll(boolean release)
+        {
+            for(int p = 0; p < offHeapPages.length; p++) {
+                LongBuffer page = offHeapPages[p];
+                if(page != null) {
+                    for(int i = 0; i <= PAGE_MASK; i++) {
+                        page.put(i, 0);
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected long word(int index)
+        {
+            LongBuffer page = offHeapPages[index >>> PAGE_SHIFT];
+            return page == null ? 0 : page.get(index & PAGE_MASK);
+        }
+    }
+}
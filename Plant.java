@@ -5,10 +5,29 @@
  */
 public abstract class Plant
 {
+    // Receives the bare cells around a spreading plant.
+    protected static final ThreadLocal<int[]> spreadBuffer = ThreadLocal.withInitial(() -> new int[8]);
+
     private boolean alive;
     private Location location;
-    protected int age;
+    // The plant's age, read and set through getAge and setAge. While it
+    // is alive in a field stored off the heap, it is kept in a slot of
+    // the field's EntitySlots instead.
+    private int age;
+    private EntitySlots slots;
+    private int slot = -1;
+    // The field the plant was last placed in.
+    private Field placedIn;
     protected final int maturityAge;
+    // The id of the plant's species (see Species).
+    private final int speciesId;
+    // The plant is carried over without acting until this step (see
+    // StepScheduler).
+    private int dormantUntil;
+    // Whether this dead plant has been handed to the EntityPool, and how
+    // many times it has been reused.
+    private boolean recycled;
+    private int generation;
 
     public Plant(Location location, int maturityAge)
     {
@@ -16,11 +35,152 @@ public abstract class Plant
         this.location = location;
         this.age = 0;
         this.maturityAge = maturityAge;
+        this.speciesId = getSpecies().getId();
+    }
+
+    /** This plant's species. */
+    public abstract Species getSpecies();
+
+    /** The id of this plant's species. */
+    public int getSpeciesId()
+    {
+        return speciesId;
+    }
+
+    /** This plant's age in steps. */
+    public int getAge()
+    {
+        return slot < 0 ? age : slots.get(slot, EntitySlots.AGE);
+    }
+
+    protected void setAge(int age)
+    {
+        if(slot < 0) {
+            this.age = age;
+        }
+        else {
+            slots.set(slot, EntitySlots.AGE, age);
+        }
+    }
+
+    /** Overwrite this plant's age with one recorded elsewhere. */
+    protected void restore(int age)
+    {
+        setAge(age);
+    }
+
+    /**
+     * Move the plant's age into a slot of the given table, or back into
+     * this object if it is null.
+     */
+    private void moveState(EntitySlots target)
+    {
+        int currentAge = getAge();
+        if(slot >= 0) {
+            slots.release(slot);
+        }
+        slots = target;
+        slot = target == null ? -1 : target.take();
+        setAge(currentAge);
+    }
+
+    /** Record that the plant has been placed in the field. Called by the field. */
+    void placedAt(Field field)
+    {
+        placedIn = field;
+        if(field.getEntitySlots() != slots) {
+            moveState(field.getEntitySlots());
+        }
+    }
+
+    /**
+     * Record that the field is being emptied under the plant: if it was
+     * last placed there, its age moves back into this object. Called by
+     * the field.
+     */
+    void removedFrom(Field field)
+    {
+        if(placedIn == field && slot >= 0) {
+            moveState(null);
+        }
     }
 
-    /** Each step the plant gets to act (age, spread seeds, etc.). */
+    /** Each step the plant gets to act (age, spread seeds, etc.) in the weather at its cell. */
     public abstract void act(Field currentField, Field nextFieldState, Weather weather);
 
+    /**
+     * Return how many of the following steps this plant can be carried
+     * over instead of acting: until it matures it only ages, and while
+     * the weather is not one it spreads in it only ages until the weather
+     * may next change, however long it has been dry.
+     * @param weather The weather at the plant this step.
+     * @param stepsUnchanged The number of following steps before the
+     *                       weather may change.
+     */
+    protected int dormantSteps(Weather weather, int stepsUnchanged)
+    {
+        int steps = Math.max(0, maturityAge - getAge() - 1);
+        return spreadsIn(weather) ? steps : Math.max(steps, stepsUnchanged);
+    }
+
+    /** Whether this plant spreads in the given weather once mature. Default: only in the rain. */
+    protected boolean spreadsIn(Weather weather)
+    {
+        return weather == Weather.RAIN;
+    }
+
+    /** Advance a dormant plant a step: it ages and, if it survives, stays. */
+    public void carryOver(Field nextFieldState)
+    {
+        incrementAge();
+        if(isAlive()) {
+            nextFieldState.placePlant(this, location);
+        }
+    }
+
+    /** The step until which this plant is carried over. */
+    int getDormantUntil()
+    {
+        return dormantUntil;
+    }
+
+    /** Carry this plant over until the given step. */
+    void setDormantUntil(int step)
+    {
+        dormantUntil = step;
+    }
+
+    /** Create a new, unaged plant of this species at the location. */
+    protected abstract Plant createSeedling(Location location);
+
+    /** Bring this dead plant back as a new one at the location (see EntityPool). */
+    void reuse(Location location)
+    {
+        alive = true;
+        this.location = location;
+        age = 0;
+        dormantUntil = 0;
+        recycled = false;
+        generation++;
+    }
+
+    /** Whether this dead plant has been handed to the EntityPool. */
+    boolean isRecycled()
+    {
+        return recycled;
+    }
+
+    void setRecycled(boolean recycled)
+    {
+        this.recycled = recycled;
+    }
+
+    /** The number of times this plant has been reused. */
+    int getGeneration()
+    {
+        return generation;
+    }
+
     /** Maximum age before this plant dies. */
     public abstract int getMaxAge();
 
@@ -32,6 +192,8 @@ public abstract class Plant
     public void setDead()
     {
         alive = false;
+        moveState(null);
+        placedIn = null;
         location = null;
     }
 
@@ -48,8 +210,23 @@ public abstract class Plant
     /** Age by one step; die if max age exceeded. */
     protected void incrementAge()
     {
-        age++;
-        if(age > getMaxAge()) {
+        int newAge = getAge() + 1;
+        setAge(newAge);
+        if(newAge > getMaxAge()) {
+            setDead();
+        }
+    }
+
+    /**
+     * Age by the given number of steps at once, dying if that takes it
+     * past its maximum age, as that many calls to incrementAge would
+     * (see PlantLayer).
+     */
+    void fastForward(int steps)
+    {
+        int newAge = getAge() + steps;
+        setAge(newAge);
+        if(newAge > getMaxAge()) {
             setDead();
         }
     }
@@ -57,15 +234,15 @@ public abstract class Plant
     /** Whether this plant has reached maturity and can be eaten/spread. */
     public boolean isEdible()
     {
-        return age >= maturityAge;
+        return getAge() >= maturityAge;
     }
 
     /**
-     * Whether this plant can be eaten by the given predator.
-     * Subclasses override to specify which animals can eat them.
+     * Whether this plant can be eaten by the given predator, according
+     * to the diet matrix.
      */
     public boolean isEdibleBy(Animal predator)
     {
-        return false;
+        return isEdible() && Diet.eats(predator.getSpeciesId(), speciesId, predator.getFoodLevel());
     }
 }
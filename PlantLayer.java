@@ -0,0 +1,318 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The plants of a field's quiet tiles, kept from step to step instead
+ * of being carried over into every new field state (see StepScheduler).
+ *
+ * A tile (WeatherMap.TILE_SIZE cells square) is quiet while no animal
+ * is in it or in a tile next to it and none of those tiles has weather
+ * that any plant spreads in: nothing can then eat its plants, seed into
+ * it or make its plants spread during the next step, so they only age.
+ * The plants of a quiet tile are taken out of the field and the tile
+ * records the step their ages are current for. When the tile is next
+ * needed they are aged by the steps since in one go, those taken past
+ * their maximum age die, and the rest are put back.
+ *
+ * The layer belongs to one field at a time, the current state of the
+ * simulation. Reading that field's plants brings tiles back as needed:
+ * a cell's tile when the cell is read, every tile when the plants are
+ * listed. Counting them does not, as each tile keeps the steps its
+ * plants die at.
+ */
+public class PlantLayer
+{
+    private static final int TILE_SHIFT = Integer.numberOfTrailingZeros(WeatherMap.TILE_SIZE);
+
+    private final int tileRows, tileCols;
+    // The plants of each quiet tile; null for the tiles whose plants
+    // are in the field.
+    private final List<List<Plant>> tiles;
+    // The step the ages of each quiet tile's plants are current for.
+    private final int[] updatedTo;
+    // For each quiet tile and species, the steps its plants die at, sorted.
+    private final int[][][] deaths;
+    // The quiet tiles, and those made quiet this step.
+    private final BitSet quiet = new BitSet();
+    private final BitSet quietened = new BitSet();
+    // The tiles found busy for the next step (see findBusyTiles).
+    private final boolean[] busy;
+    // The class of each species' plants, for Field.fieldStats.
+    private final Class<?>[] classes = new Class<?>[Species.COUNT];
+    // The field the plants belong to and the step it is the state after.
+    private Field field;
+    private int step;
+
+    /**
+     * Create an empty layer for a field of the given size.
+     */
+    public PlantLayer(int depth, int width)
+    {
+        tileRows = (depth + WeatherMap.TILE_SIZE - 1) >> TILE_SHIFT;
+        tileCols = (width + WeatherMap.TILE_SIZE - 1) >> TILE_SHIFT;
+        tiles = new ArrayList<>(tileRows * tileCols);
+        for(int tile = 0; tile < tileRows * tileCols; tile++) {
+            tiles.add(null);
+        }
+        updatedTo = new int[tileRows * tileCols];
+        deaths = new int[tileRows * tileCols][][];
+        busy = new boolean[tileRows * tileCols];
+    }
+
+    /**
+     * Return the tile holding the given location.
+     */
+    private int tileOf(Location location)
+    {
+        return (location.row() >> TILE_SHIFT) * tileCols + (location.col() >> TILE_SHIFT);
+    }
+
+    /**
+     * Work out which tiles are busy for the step after the given field's:
+     * those with one of the field's animals in or next to them, and
+     * those next to a tile whose weather some plant spreads in.
+     * @param field The field whose animals are about to act.
+     * @param weather The weather they act in.
+     * @param spreadingWeather Whether some plant spreads in each weather,
+     *                         by ordinal.
+     */
+    public void findBusyTiles(Field field, WeatherMap weather, boolean[] spreadingWeather)
+    {
+        Arrays.fill(busy, false);
+        boolean torus = field.getTopology() == Topology.TORUS;
+        for(Animal anAnimal : field.getAnimals()) {
+            if(anAnimal.isAlive()) {
+                int cell = anAnimal.getCell();
+                markAround(field.rowOf(cell) >> TILE_SHIFT, field.colOf(cell) >> TILE_SHIFT, torus);
+            }
+        }
+        for(int tileRow = 0; tileRow < tileRows; tileRow++) {
+            for(int tileCol = 0; tileCol < tileCols; tileCol++) {
+                Weather here = weather.at(tileRow << TILE_SHIFT, tileCol << TILE_SHIFT);
+                if(spreadingWeather[here.ordinal()]) {
+                    markAround(tileRow, tileCol, torus);
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark the tile and those next to it busy.
+     */
+    private void markAround(int tileRow, int tileCol, boolean torus)
+    {
+        for(int dr = -1; dr <= 1; dr++) {
+            for(int dc = -1; dc <= 1; dc++) {
+                int r = tileRow + dr;
+                int c = tileCol + dc;
+                if(torus) {
+                    r = Math.floorMod(r, tileRows);
+                    c = Math.floorMod(c, tileCols);
+                }
+                if(r >= 0 && r < tileRows && c >= 0 && c < tileCols) {
+                    busy[r * tileCols + c] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return whether the tile holding the location was found busy.
+     */
+    public boolean isBusy(Location location)
+    {
+        return busy[tileOf(location)];
+    }
+
+    /**
+     * Take a plant of a tile that is not busy out of play until its tile
+     * is needed. The plants of a tile are taken in the same step.
+     * @param plant The plant, which is not carried over.
+     * @param agedTo The step its age is current for.
+     */
+    public void freeze(Plant plant, int agedTo)
+    {
+        int tile = tileOf(plant.getLocation());
+        List<Plant> plants = tiles.get(tile);
+        if(plants == null) {
+            plants = new ArrayList<>();
+            tiles.set(tile, plants);
+            updatedTo[tile] = agedTo;
+            quiet.set(tile);
+            quietened.set(tile);
+        }
+        assert updatedTo[tile] == agedTo;
+        plants.add(plant);
+        classes[plant.getSpeciesId()] = plant.getClass();
+    }
+
+    /**
+     * Finish a step: record when the plants taken this step die, hand the
+     * layer to the field holding the state after it and put back the
+     * plants of the quiet tiles that are now busy.
+     * @param field The field holding the state after the step.
+     * @param step The step.
+     */
+    public void endStep(Field field, int step)
+    {
+        for(int tile = quietened.nextSetBit(0); tile >= 0; tile = quietened.nextSetBit(tile + 1)) {
+            recordDeaths(tile);
+        }
+        quietened.clear();
+        this.field = field;
+        this.step = step;
+        thawBusy();
+    }
+
+    /**
+     * Put back the plants of the quiet tiles found busy.
+     */
+    public void thawBusy()
+    {
+        for(int tile = quiet.nextSetBit(0); tile >= 0; tile = quiet.nextSetBit(tile + 1)) {
+            if(busy[tile]) {
+                thaw(tile);
+            }
+        }
+    }
+
+    /**
+     * Sort the steps at which the plants of a newly quiet tile die.
+     */
+    private void recordDeaths(int tile)
+    {
+        List<Plant> plants = tiles.get(tile);
+        int[] counts = new int[Species.COUNT];
+        for(Plant aPlant : plants) {
+            counts[aPlant.getSpeciesId()]++;
+        }
+        int[][] steps = new int[Species.COUNT][];
+        for(int id = 0; id < Species.COUNT; id++) {
+            steps[id] = new int[counts[id]];
+            counts[id] = 0;
+        }
+        for(Plant aPlant : plants) {
+            int id = aPlant.getSpeciesId();
+            // Aged once a step, it dies at the step that takes it past its maximum age.
+            steps[id][counts[id]++] = updatedTo[tile] + aPlant.getMaxAge() - aPlant.getAge() + 1;
+        }
+        for(int[] speciesSteps : steps) {
+            Arrays.sort(speciesSteps);
+        }
+        deaths[tile] = steps;
+    }
+
+    /**
+     * Age the plants of a quiet tile to the field's step and put the
+     * survivors back in the field.
+     */
+    private void thaw(int tile)
+    {
+        List<Plant> plants = tiles.get(tile);
+        int steps = step - updatedTo[tile];
+        tiles.set(tile, null);
+        deaths[tile] = null;
+        quiet.clear(tile);
+        for(Plant aPlant : plants) {
+            aPlant.fastForward(steps);
+            if(aPlant.isAlive()) {
+                field.placePlant(aPlant, aPlant.getLocation());
+            }
+        }
+    }
+
+    /**
+     * Put back the plants of the tile holding the given cell, if it is
+     * quiet.
+     * @return true if any were put back.
+     */
+    public boolean thawAt(int row, int col)
+    {
+        if(row < 0 || col < 0 || (row >> TILE_SHIFT) >= tileRows || (col >> TILE_SHIFT) >= tileCols) {
+            return false;
+        }
+        int tile = (row >> TILE_SHIFT) * tileCols + (col >> TILE_SHIFT);
+        if(!quiet.get(tile)) {
+            return false;
+        }
+        thaw(tile);
+        return true;
+    }
+
+    /**
+     * Put back the plants of every quiet tile.
+     */
+    public void thawAll()
+    {
+        for(int tile = quiet.nextSetBit(0); tile >= 0; tile = quiet.nextSetBit(tile + 1)) {
+            thaw(tile);
+        }
+    }
+
+    /**
+     * Return whether the layer holds plants of the given field.
+     */
+    public boolean isHeldBy(Field aField)
+    {
+        return field == aField && !quiet.isEmpty();
+    }
+
+    /**
+     * Add the number of live plants of each species in the quiet tiles
+     * to the counts.
+     * @param counts The counts, indexed by species id.
+     */
+    public void countInto(int[] counts)
+    {
+        for(int tile = quiet.nextSetBit(0); tile >= 0; tile = quiet.nextSetBit(tile + 1)) {
+            int[][] steps = deaths[tile];
+            for(int id = 0; id < Species.COUNT; id++) {
+                counts[id] += countAfter(steps[id], step);
+            }
+        }
+    }
+
+    /**
+     * Return how many of the sorted steps are after the given one.
+     */
+    private static int countAfter(int[] sorted, int step)
+    {
+        int low = 0;
+        int high = sorted.length;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(sorted[mid] <= step) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return sorted.length - low;
+    }
+
+    /**
+     * Return the class of the plants of the given species seen in the
+     * layer, or null.
+     */
+    public Class<?> classOf(int speciesId)
+    {
+        return classes[speciesId];
+    }
+
+    /**
+     * Drop every plant and release the field.
+     */
+    public void clear()
+    {
+        for(int tile = quiet.nextSetBit(0); tile >= 0; tile = quiet.nextSetBit(tile + 1)) {
+            tiles.set(tile, null);
+            deaths[tile] = null;
+        }
+        quiet.clear();
+        quietened.clear();
+        field = null;
+    }
+}
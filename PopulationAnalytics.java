@@ -0,0 +1,382 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Streaming analysis of the population of each species, so that cycle
+ * periods and predator/prey phase lags can be had without writing out
+ * and reloading the raw per-step counts.
+ *
+ * Over a sliding window of the most recent steps the analytics keep,
+ * updated in constant time per step (per bin or lag):
+ *  - the rolling mean and standard deviation of every species,
+ *  - the cross-correlation of every predator/prey pair in the Diet at
+ *    lags from -maxLag to +maxLag, and
+ *  - a sliding DFT of every species, giving its periodogram.
+ * Every few steps a compact Summary is handed to the sink.
+ */
+public class PopulationAnalytics implements StepListener
+{
+    /**
+     * The phase relation of a predator and its prey.
+     * @param predator The predator.
+     * @param prey The prey.
+     * @param lag The lag in steps at which the correlation is strongest;
+     *            positive when the predator follows the prey.
+     * @param correlation The correlation at that lag.
+     */
+    public record PhaseLag(Species predator, Species prey, int lag, double correlation)
+    {
+    }
+
+    /**
+     * The state of the populations over the last window.
+     * @param step The step of the summary.
+     * @param means Rolling mean of each species, by species id.
+     * @param deviations Rolling standard deviation of each species.
+     * @param periods Period in steps of the strongest periodogram peak of
+     *                each species, or 0 if it has none.
+     * @param peakShares The share of each species' variance in that peak.
+     * @param lags The phase lags of the predator/prey pairs.
+     */
+    public record Summary(int step, double[] means, double[] deviations, int[] periods,
+                          double[] peakShares, List<PhaseLag> lags)
+    {
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder("Analytics at step ").append(step).append(':');
+            for(Species species : Species.values()) {
+                int s = species.getId();
+                if(means[s] > 0) {
+                    sb.append(' ').append(species.getLabel())
+                      .append(String.format(" %.1f±%.1f", means[s], deviations[s]));
+                    if(periods[s] > 0) {
+                        sb.append(String.format(" T=%d (%.0f%%)", periods[s], 100 * peakShares[s]));
+                    }
+                }
+            }
+            for(PhaseLag lag : lags) {
+                sb.append("; ").append(lag.predator().getLabel()).append('~').append(lag.prey().getLabel())
+                  .append(String.format(" lag %+d r=%.2f", lag.lag(), lag.correlation()));
+            }
+            return sb.toString();
+        }
+    }
+
+    // How often, in windows, the sliding DFT is recomputed in full to
+    // clear the rounding error that its updates accumulate.
+    private static final int REFRESH_WINDOWS = 4;
+    // The number of running sums kept per pair and lag.
+    private static final int LAG_SUMS = 5;
+
+    // The number of steps in the window.
+    private final int window;
+    // The largest lag examined by the cross-correlations.
+    private final int maxLag;
+    // How often, in steps, a summary is emitted.
+    private final int interval;
+    // Where the summaries go.
+    private final Consumer<Summary> sink;
+
+    // The last window + maxLag + 1 counts per species, as ring buffers.
+    private final int[][] history;
+    // Running sums of the counts and their squares over the window.
+    private final long[] sum;
+    private final long[] sumOfSquares;
+    // The predator and prey of each pair and, for every lag from -maxLag
+    // to maxLag, running sums over the window of x = predator(t) and
+    // y = prey(t - lag): x, y, x*x, y*y and x*y, in LAG_SUMS slots.
+    private final int[] predators;
+    private final int[] preys;
+    private final long[][] lagSums;
+    // The sliding DFT of each species for bins 1..window/2.
+    private final double[][] real;
+    private final double[][] imaginary;
+    // The rotation applied to bin k each step.
+    private final double[] cos;
+    private final double[] sin;
+    // The number of steps observed.
+    private int observed;
+
+    /**
+     * Create analytics over a 256-step window, looking for lags up to
+     * 64 steps and printing a summary every 100 steps.
+     */
+    public PopulationAnalytics()
+    {
+        this(256, 64, 100, System.out::println);
+    }
+
+    /**
+     * Create analytics.
+     * @param window The number of steps analysed.
+     * @param maxLag The largest predator/prey lag looked for.
+     * @param interval How often, in steps, to emit a summary.
+     * @param sink Receives the summaries.
+     */
+    public PopulationAnalytics(int window, int maxLag, int interval, Consumer<Summary> sink)
+    {
+        if(maxLag >= window) {
+            throw new IllegalArgumentException("Lag " + maxLag + " does not fit the window " + window);
+        }
+        this.window = window;
+        this.maxLag = maxLag;
+        this.interval = interval;
+        this.sink = sink;
+        history = new int[Species.COUNT][window + maxLag + 1];
+        sum = new long[Species.COUNT];
+        sumOfSquares = new long[Species.COUNT];
+
+        List<int[]> pairs = new ArrayList<>();
+        for(int predator = 0; predator < Species.COUNT; predator++) {
+            for(int prey = 0; prey < Species.COUNT; prey++) {
+                if(Diet.isPrey(predator, prey)) {
+                    pairs.add(new int[] { predator, prey });
+                }
+            }
+        }
+        predators = new int[pairs.size()];
+        preys = new int[pairs.size()];
+        for(int p = 0; p < pairs.size(); p++) {
+            predators[p] = pairs.get(p)[0];
+            preys[p] = pairs.get(p)[1];
+        }
+        lagSums = new long[pairs.size()][(2 * maxLag + 1) * LAG_SUMS];
+
+        int bins = window / 2;
+        real = new double[Species.COUNT][bins + 1];
+        imaginary = new double[Species.COUNT][bins + 1];
+        cos = new double[bins + 1];
+        sin = new double[bins + 1];
+        for(int k = 1; k <= bins; k++) {
+            cos[k] = Math.cos(2 * Math.PI * k / window);
+            sin[k] = Math.sin(2 * Math.PI * k / window);
+        }
+    }
+
+    @Override
+    public void stepCompleted(int step, Field field)
+    {
+        observe(step, field.getSpeciesCounts());
+    }
+
+    /**
+     * Add the counts after a step to the window.
+     * @param step The step just completed.
+     * @param counts The number alive of each species, by species id.
+     */
+    public void observe(int step, int[] counts)
+    {
+        int length = history[0].length;
+        // Write the new counts first, so that lag 0 sees them.
+        int slot = observed % length;
+        for(int s = 0; s < Species.COUNT; s++) {
+            history[s][slot] = counts[s];
+        }
+        observed++;
+
+        for(int s = 0; s < Species.COUNT; s++) {
+            long leaving = count(s, window);
+            long entering = counts[s];
+            sum[s] += entering - leaving;
+            sumOfSquares[s] += entering * entering - leaving * leaving;
+            slideTransform(s, entering - leaving);
+        }
+        for(int p = 0; p < predators.length; p++) {
+            for(int lag = -maxLag; lag <= maxLag; lag++) {
+                // Pair predator(t) with prey(t - lag), entering at the
+                // newer of the two times and leaving a window later.
+                int back = Math.max(0, -lag);
+                slidePair(p, lag, back, 1);
+                slidePair(p, lag, back + window, -1);
+            }
+        }
+
+        if(observed % (REFRESH_WINDOWS * window) == 0) {
+            refreshTransforms();
+        }
+        if(interval > 0 && step % interval == 0 && observed >= window) {
+            sink.accept(summarize(step));
+        }
+    }
+
+    /**
+     * Return a summary of the current window.
+     */
+    public Summary summarize(int step)
+    {
+        int n = Math.min(observed, window);
+        double[] means = new double[Species.COUNT];
+        double[] deviations = new double[Species.COUNT];
+        int[] periods = new int[Species.COUNT];
+        double[] peakShares = new double[Species.COUNT];
+        for(int s = 0; s < Species.COUNT && n > 0; s++) {
+            means[s] = (double) sum[s] / n;
+            deviations[s] = Math.sqrt(Math.max(0, (double) sumOfSquares[s] / n - means[s] * means[s]));
+            // Power in each bin; the total over the bins is proportional
+            // to the variance.
+            double total = 0;
+            double peak = 0;
+            int peakBin = 0;
+            for(int k = 1; k < real[s].length; k++) {
+                double power = power(s, k);
+                total += power;
+                if(power > peak) {
+                    peak = power;
+                    peakBin = k;
+                }
+            }
+            if(deviations[s] > 0 && n == window) {
+                periods[s] = (int) Math.round(window / interpolate(s, peakBin));
+                peakShares[s] = peak / total;
+            }
+        }
+
+        List<PhaseLag> lags = new ArrayList<>();
+        for(int p = 0; p < predators.length; p++) {
+            int predator = predators[p];
+            int prey = preys[p];
+            if(deviations[predator] == 0 || deviations[prey] == 0) {
+                continue;
+            }
+            // The lag at which the two move together most closely.
+            int bestLag = 0;
+            double best = -1;
+            for(int lag = -maxLag; lag <= maxLag; lag++) {
+                double correlation = correlation(p, lag);
+                if(correlation > best) {
+                    best = correlation;
+                    bestLag = lag;
+                }
+            }
+            lags.add(new PhaseLag(Species.byId(predator), Species.byId(prey), bestLag, best));
+        }
+        return new Summary(step, means, deviations, periods, peakShares, lags);
+    }
+
+    /**
+     * Return the count of a species the given number of steps before the
+     * latest, or 0 if that is before the first step observed.
+     */
+    private long count(int species, int back)
+    {
+        if(back >= observed) {
+            return 0;
+        }
+        int length = history[0].length;
+        return history[species][(observed - 1 - back) % length];
+    }
+
+    /**
+     * Add (sign 1) or remove (sign -1) predator(t) and prey(t - lag) of
+     * the pair p in the sums for the lag, where t is the given number of
+     * steps before the latest. Pairs reaching back before the first step
+     * observed are never counted.
+     */
+    private void slidePair(int p, int lag, int back, int sign)
+    {
+        if(Math.max(back, back + lag) >= observed) {
+            return;
+        }
+        long x = count(predators[p], back);
+        long y = count(preys[p], back + lag);
+        long[] sums = lagSums[p];
+        int at = (lag + maxLag) * LAG_SUMS;
+        sums[at] += sign * x;
+        sums[at + 1] += sign * y;
+        sums[at + 2] += sign * x * x;
+        sums[at + 3] += sign * y * y;
+        sums[at + 4] += sign * x * y;
+    }
+
+    /**
+     * Return the correlation of predator(t) and prey(t - lag) for the
+     * pair p over the window, or 0 if either is constant.
+     */
+    private double correlation(int p, int lag)
+    {
+        int pairs = Math.min(observed - Math.abs(lag), window);
+        if(pairs <= 1) {
+            return 0;
+        }
+        long[] sums = lagSums[p];
+        int at = (lag + maxLag) * LAG_SUMS;
+        double meanX = (double) sums[at] / pairs;
+        double meanY = (double) sums[at + 1] / pairs;
+        double varianceX = (double) sums[at + 2] / pairs - meanX * meanX;
+        double varianceY = (double) sums[at + 3] / pairs - meanY * meanY;
+        if(varianceX <= 0 || varianceY <= 0) {
+            return 0;
+        }
+        return ((double) sums[at + 4] / pairs - meanX * meanY) / Math.sqrt(varianceX * varianceY);
+    }
+
+    /**
+     * Return the frequency, in bins, of the periodogram peak of a species
+     * at the given bin, refined by fitting a parabola to the magnitudes of
+     * its neighbours.
+     */
+    private double interpolate(int s, int bin)
+    {
+        if(bin <= 1 || bin >= real[s].length - 1) {
+            return bin;
+        }
+        double before = Math.sqrt(power(s, bin - 1));
+        double at = Math.sqrt(power(s, bin));
+        double after = Math.sqrt(power(s, bin + 1));
+        double curvature = before - 2 * at + after;
+        if(curvature >= 0) {
+            return bin;
+        }
+        return bin + 0.5 * (before - after) / curvature;
+    }
+
+    /**
+     * Return the periodogram power of a species in a bin.
+     */
+    private double power(int s, int bin)
+    {
+        return real[s][bin] * real[s][bin] + imaginary[s][bin] * imaginary[s][bin];
+    }
+
+    /**
+     * Slide the DFT of a species on by one step, given the entering
+     * count minus the leaving one.
+     */
+    private void slideTransform(int s, double change)
+    {
+        double[] re = real[s];
+        double[] im = imaginary[s];
+        for(int k = 1; k < re.length; k++) {
+            double r = re[k] + change;
+            double i = im[k];
+            re[k] = r * cos[k] - i * sin[k];
+            im[k] = r * sin[k] + i * cos[k];
+        }
+    }
+
+    /**
+     * Recompute the DFT of every species directly from the window.
+     */
+    private void refreshTransforms()
+    {
+        for(int s = 0; s < Species.COUNT; s++) {
+            for(int k = 1; k < real[s].length; k++) {
+                double re = 0;
+                double im = 0;
+                // The oldest value in the window is at index 0; matching
+                // the sliding updates, the value i steps after it has
+                // been rotated back by i bins' angles.
+                for(int i = 0; i < window; i++) {
+                    double angle = -2 * Math.PI * k * i / window;
+                    double x = count(s, window - 1 - i);
+                    re += x * Math.cos(angle);
+                    im += x * Math.sin(angle);
+                }
+                real[s][k] = re;
+                imaginary[s][k] = im;
+            }
+        }
+    }
+}
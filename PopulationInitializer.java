@@ -0,0 +1,148 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Fill a field with its starting population.
+ * 
+ * The rows are split into bands which are filled in parallel. Each band
+ * draws from its own random stream derived from the seed and the band's
+ * position, so the population depends only on the seed, not on the
+ * number of threads. Filled bands are then placed into the field's grid
+ * in one bulk pass.
+ */
+public class PopulationInitializer
+{
+    // Rainforest species creation probabilities.
+    private static final double FERN_CREATION_PROBABILITY = 0.30;
+    private static final double FRUIT_TREE_CREATION_PROBABILITY = 0.25;
+    private static final double CAPYBARA_CREATION_PROBABILITY = 0.09;
+    private static final double HOWLER_MONKEY_CREATION_PROBABILITY = 0.10;
+    private static final double JAGUAR_CREATION_PROBABILITY = 0.015;
+    private static final double HARPY_EAGLE_CREATION_PROBABILITY = 0.018;
+    // The number of rows in each band.
+    private static final int BAND_ROWS = 32;
+
+    /**
+     * Fills one band of rows, collecting what it creates.
+     */
+    public interface BandFiller
+    {
+        /**
+         * Create the animals and plants for the given rows.
+         * @param fromRow The first row of the band.
+         * @param toRow The row after the last one of the band.
+         * @param rand The band's own random generator.
+         * @param animals Receives the animals created.
+         * @param plants Receives the plants created.
+         */
+        void fill(int fromRow, int toRow, Random rand, List<Animal> animals, List<Plant> plants);
+    }
+
+    /**
+     * Randomly populate the whole of an empty field.
+     * @param field The field to populate.
+     * @param seed The seed deciding what goes where.
+     */
+    public static void populate(Field field, long seed)
+    {
+        populate(field, 0, field.getDepth(), seed);
+    }
+
+    /**
+     * Randomly populate the given rows of a field. The rows must be empty.
+     * @param field The field to populate.
+     * @param fromRow The first row to populate.
+     * @param toRow The row after the last one to populate.
+     * @param seed The seed deciding what goes where.
+     */
+    public static void populate(Field field, int fromRow, int toRow, long seed)
+    {
+        fillInBands(field, fromRow, toRow, seed,
+                    (bandFrom, bandTo, rand, animals, plants) ->
+                        fillRandomly(field.getWidth(), bandFrom, bandTo, rand, animals, plants));
+    }
+
+    /**
+     * Fill the given rows of an empty field band by band, in parallel.
+     * @param field The field to fill.
+     * @param fromRow The first row to fill.
+     * @param toRow The row after the last one to fill.
+     * @param seed The seed from which each band's random stream is derived.
+     * @param filler Creates the contents of each band.
+     */
+    public static void fillInBands(Field field, int fromRow, int toRow, long seed, BandFiller filler)
+    {
+        int bands = (toRow - fromRow + BAND_ROWS - 1) / BAND_ROWS;
+        List<List<Animal>> bandAnimals = new ArrayList<>(Collections.nCopies(bands, null));
+        List<List<Plant>> bandPlants = new ArrayList<>(Collections.nCopies(bands, null));
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int bandFrom = fromRow + band * BAND_ROWS;
+            int bandTo = Math.min(bandFrom + BAND_ROWS, toRow);
+            List<Animal> animals = new ArrayList<>();
+            List<Plant> plants = new ArrayList<>();
+            filler.fill(bandFrom, bandTo, new Random(bandSeed(seed, band)), animals, plants);
+            bandAnimals.set(band, animals);
+            bandPlants.set(band, plants);
+        });
+        for(int band = 0; band < bands; band++) {
+            field.placeAll(bandAnimals.get(band), bandPlants.get(band));
+        }
+    }
+
+    /**
+     * Randomly create the contents of the given rows.
+     */
+    private static void fillRandomly(int width, int fromRow, int toRow, Random rand,
+                                     List<Animal> animals, List<Plant> plants)
+    {
+        double plantTotal = FERN_CREATION_PROBABILITY + FRUIT_TREE_CREATION_PROBABILITY;
+        double animalTotal = CAPYBARA_CREATION_PROBABILITY + HOWLER_MONKEY_CREATION_PROBABILITY
+                + JAGUAR_CREATION_PROBABILITY + HARPY_EAGLE_CREATION_PROBABILITY;
+        for(int row = fromRow; row < toRow; row++) {
+            for(int col = 0; col < width; col++) {
+                double plantRoll = rand.nextDouble();
+                double animalRoll = rand.nextDouble();
+                if(plantRoll > plantTotal && animalRoll > animalTotal) {
+                    // Nothing here, so no location is needed.
+                    continue;
+                }
+                Location location = new Location(row, col);
+                // Plants occupy the plant layer independently of animals.
+                if(plantRoll <= FERN_CREATION_PROBABILITY) {
+                    plants.add(new Fern(true, location, rand));
+                } else if(plantRoll <= plantTotal) {
+                    plants.add(new FruitTree(true, location, rand));
+                }
+                // Animals occupy the animal layer.
+                if(animalRoll <= CAPYBARA_CREATION_PROBABILITY) {
+                    animals.add(new Capybara(true, location, rand));
+                }
+                else if(animalRoll <= CAPYBARA_CREATION_PROBABILITY + HOWLER_MONKEY_CREATION_PROBABILITY) {
+                    animals.add(new HowlerMonkey(true, location, rand));
+                }
+                else if(animalRoll <= CAPYBARA_CREATION_PROBABILITY + HOWLER_MONKEY_CREATION_PROBABILITY
+                        + JAGUAR_CREATION_PROBABILITY) {
+                    animals.add(new Jaguar(true, location, rand));
+                }
+                else if(animalRoll <= animalTotal) {
+                    animals.add(new HarpyEagle(true, location, rand));
+                }
+            }
+        }
+    }
+
+    /**
+     * Derive a band's seed from the run's seed (SplitMix64 finaliser), so
+     * that neighbouring bands get unrelated streams.
+     */
+    private static long bandSeed(long seed, int band)
+    {
+        long z = seed + (band + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Save and load a field's population as a raster file, so that large
+ * runs can start from a prebuilt population.
+ * 
+ * The file holds a header (magic number, depth, width as big-endian
+ * ints) followed by the plant layer and then the animal layer, one byte
+ * per cell in row-major order: 0 for an empty cell, otherwise the
+ * species id plus one. Only species are recorded; ages and other state
+ * are drawn at random on loading, as for a random population.
+ */
+public class PopulationRaster
+{
+    // Identifies a population raster file ("PPR1").
+    private static final int MAGIC = 0x50505231;
+    // The size of the header in bytes.
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * Write the live population of a field to a raster file.
+     */
+    public static void write(Field field, Path file) throws IOException
+    {
+        try(DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(field.getDepth());
+            out.writeInt(field.getWidth());
+            int cells = field.getDepth() * field.getWidth();
+            for(int index = 0; index < cells; index++) {
+                Plant plant = field.getPlantAt(field.cellOf(index / field.getWidth(), index % field.getWidth()));
+                out.writeByte(plant != null && plant.isAlive() ? plant.getSpeciesId() + 1 : 0);
+            }
+            for(int index = 0; index < cells; index++) {
+                Animal animal = field.getAnimalAt(field.cellOf(index / field.getWidth(), index % field.getWidth()));
+                out.writeByte(animal != null && animal.isAlive() ? animal.getSpeciesId() + 1 : 0);
+            }
+        }
+    }
+
+    /**
+     * Populate an empty field from a raster file of the same size. Bands
+     * of rows are read in parallel, each from its own slice of the file.
+     * @param file The raster file.
+     * @param field The field to populate.
+     * @param seed The seed deciding the ages and other state drawn.
+     */
+    public static void read(Path file, Field field, long seed) throws IOException
+    {
+        int depth = field.getDepth();
+        int width = field.getWidth();
+        try(DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if(in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a population raster");
+            }
+            int fileDepth = in.readInt();
+            int fileWidth = in.readInt();
+            if(fileDepth != depth || fileWidth != width) {
+                throw new IOException("Raster is " + fileDepth + "x" + fileWidth
+                                      + " but the field is " + depth + "x" + width);
+            }
+        }
+        long layerSize = (long) depth * width;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long expected = HEADER_SIZE + 2 * layerSize;
+            if(channel.size() != expected) {
+                throw new IOException("Raster " + file + " is " + channel.size() + " bytes; a "
+                                      + depth + "x" + width + " raster is " + expected);
+            }
+            PopulationInitializer.fillInBands(field, 0, depth, seed, (fromRow, toRow, rand, animals, plants) -> {
+                long bandStart = (long) fromRow * width;
+                int bandSize = (toRow - fromRow) * width;
+                try {
+                    MappedByteBuffer plantCodes = channel.map(FileChannel.MapMode.READ_ONLY,
+                                                              HEADER_SIZE + bandStart, bandSize);
+                    MappedByteBuffer animalCodes = channel.map(FileChannel.MapMode.READ_ONLY,
+                                                               HEADER_SIZE + layerSize + bandStart, bandSize);
+                    for(int i = 0; i < bandSize; i++) {
+                        int plantCode = plantCodes.get(i) & 0xFF;
+                        int animalCode = animalCodes.get(i) & 0xFF;
+                        if(plantCode == 0 && animalCode == 0) {
+                            continue;
+                        }
+                        Location location = new Location(fromRow + i / width, i % width);
+                        if(plantCode != 0) {
+                            Species species = speciesOf(plantCode, true, location);
+                            plants.add(species.createPlant(true, location, rand));
+                        }
+                        if(animalCode != 0) {
+                            Species species = speciesOf(animalCode, false, location);
+                            animals.add(species.createAnimal(true, location, rand));
+                        }
+                    }
+                }
+                catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        catch(UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Return the species a code in the given layer stands for.
+     * @throws UncheckedIOException wrapping an IOException naming the
+     *         cell if the code is not a species of that layer.
+     */
+    private static Species speciesOf(int code, boolean plantLayer, Location location)
+    {
+        if(code <= Species.COUNT) {
+            Species species = Species.byId(code - 1);
+            if(species.isPlant() == plantLayer) {
+                return species;
+            }
+        }
+        throw new UncheckedIOException(new IOException(
+            "Invalid " + (plantLayer ? "plant" : "animal") + " code " + code + " at row "
+            + location.row() + ", column " + location.col()));
+    }
+}
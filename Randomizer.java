@@ -1,21 +1,61 @@
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Provide control over the randomization of the simulation. By using the shared, fixed-seed 
  * randomizer, repeated runs will perform exactly the same (which helps with testing). Set 
  * 'useShared' to false to get different random behaviour every time.
  * 
+ * Otherwise each caller gets its own generator, and seed() reseeds all of
+ * them at once: each from the seed, the caller's class name and how many
+ * generators that class asked for before, so runs from the same seed
+ * repeat exactly whatever order the classes were loaded in.
+ * 
+ * A thread's draws from any of these generators can instead be keyed
+ * (see DrawKeys): each value is then a hash of a key set for the actor
+ * about to run and the count of values drawn since, so every random
+ * decision is a pure function of the simulation's seed, the step, the
+ * actor and its state, and runs repeat exactly however many threads
+ * share the work. Keys belong to the thread that set them, so keyed
+ * simulations running side by side do not affect each other. Only the
+ * in-process simulators key their draws; the strip workers of
+ * StripCoordinator do not.
+ * 
  * @author David J. Barnes and Michael Kölling
  * @version 7.0
  */
 public class Randomizer
 {
+    private record HandedOut(WeakReference<Random> random, String owner) {}
+
     // The default seed for control of randomization.
     private static final int SEED = 1111;
     // A shared Random object, if required.
-    private static final Random rand = new Random(SEED);
+    private static final Random rand = new KeyedRandom(SEED);
     // Determine whether a shared random generator is to be provided.
     private static final boolean useShared = false;
+    // The generators handed out, each with the class it was handed to
+    // and its number among that class's generators; held weakly so that
+    // generators nobody keeps can be collected.
+    private static final List<HandedOut> handedOut = new ArrayList<>();
+    // The number of generators handed to each class.
+    private static final Map<String, Integer> counts = new HashMap<>();
+    // The size at which handedOut is next purged of collected generators.
+    private static int purgeAt = 64;
+    // The seed set by seed(), or null for unpredictable generators.
+    private static Long seed;
+
+    // The number of threads whose draws are keyed; while there are none,
+    // the generators do not look up the thread's key.
+    private static final AtomicInteger keyedThreads = new AtomicInteger();
+    // Each thread's key, the number of values drawn with it, and whether
+    // its draws are keyed (1) or not (0).
+    private static final ThreadLocal<long[]> keys = ThreadLocal.withInitial(() -> new long[3]);
 
     /**
      * Constructor for objects of class Randomizer
@@ -28,14 +68,122 @@ public class Randomizer
      * Provide a random generator.
      * @return A random object.
      */
-    public static Random getRandom()
+    public static synchronized Random getRandom()
     {
         if(useShared) {
             return rand;
         }
         else {
-            return new Random();
+            String caller = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE)
+                                       .getCallerClass().getName();
+            String owner = caller + "#" + (counts.merge(caller, 1, Integer::sum) - 1);
+            Random random = seed == null ? new KeyedRandom() : new KeyedRandom(seedFor(seed, owner));
+            if(handedOut.size() >= purgeAt) {
+                handedOut.removeIf(h -> h.random().get() == null);
+                purgeAt = Math.max(64, 2 * handedOut.size());
+            }
+            handedOut.add(new HandedOut(new WeakReference<>(random), owner));
+            return random;
+        }
+    }
+
+    /**
+     * Reseed every generator handed out, and those handed out from now
+     * on, so that runs from the same seed repeat exactly.
+     * @param seed The seed.
+     */
+    public static synchronized void seed(long seed)
+    {
+        Randomizer.seed = seed;
+        if(useShared) {
+            rand.setSeed(seed);
+        }
+        handedOut.removeIf(h -> h.random().get() == null);
+        for(HandedOut h : handedOut) {
+            Random random = h.random().get();
+            if(random != null) {
+                random.setSeed(seedFor(seed, h.owner()));
+            }
+        }
+    }
+
+    /**
+     * Return the key for an actor's draws: a hash of the seed, the step,
+     * the kind of actor and its cell.
+     */
+    static long keyFor(long seed, int step, int stream, int cell)
+    {
+        return mix(mix(mix(seed + stream) + step) + cell);
+    }
+
+    /**
+     * Make the current thread's draws from generators handed out here
+     * come from the key, starting its count of values drawn from zero.
+     */
+    static void keyThread(long keyValue)
+    {
+        long[] key = keys.get();
+        if(key[2] == 0) {
+            key[2] = 1;
+            keyedThreads.incrementAndGet();
         }
+        key[0] = keyValue;
+        key[1] = 0;
+    }
+
+    /**
+     * Return the current thread's draws to the generators' own sequences.
+     */
+    static void unkeyThread()
+    {
+        if(keyedThreads.get() == 0) {
+            return;
+        }
+        long[] key = keys.get();
+        if(key[2] != 0) {
+            key[2] = 0;
+            keyedThreads.decrementAndGet();
+        }
+    }
+
+    /**
+     * Return the current thread's key state if its draws are keyed, or
+     * null if they are not.
+     */
+    static long[] threadKey()
+    {
+        if(keyedThreads.get() == 0) {
+            return null;
+        }
+        long[] key = keys.get();
+        return key[2] != 0 ? key : null;
+    }
+
+    /**
+     * Return the next 64 random bits for a thread's key state.
+     */
+    static long nextKeyed(long[] key)
+    {
+        return mix(key[0] + key[1]++ * 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * Return the SplitMix64 finalizer of the value.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Return the seed for the named generator (SplitMix64 of the seed and
+     * the name's hash).
+     */
+    private static long seedFor(long seed, String owner)
+    {
+        return mix(seed + (owner.hashCode() + 1L) * 0x9E3779B97F4A7C15L);
     }
     
     /**
@@ -0,0 +1,442 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact archive of one run's history: the count of each species
+ * after every step, and snapshots of the grid every few steps.
+ *
+ * Counts are stored in blocks of up to 256 steps, one column per
+ * species, each column as its first value and then the differences
+ * between consecutive steps, as zig-zag variable-length integers.
+ * A snapshot holds one byte per cell for the plant layer and then the
+ * animal layer, as in PopulationRaster (0 for an empty cell, otherwise
+ * the species id plus one). It is stored XORed with the previous
+ * snapshot, so that unchanged cells become zero, and run-length encoded.
+ * Every 16th snapshot is a key snapshot, XORed with an empty grid
+ * instead, so that reading any snapshot decodes at most 16.
+ *
+ * The file ends with an index of the blocks and snapshots, so a reader
+ * can go to any step without decoding the rest of the file:
+ *   header:   magic, depth, width (big-endian ints)
+ *   records:  blocks and snapshots, in step order
+ *   index:    the number of entries, then for each its kind (0 for a
+ *             block, 1 for a snapshot, 2 for a key snapshot), first
+ *             step, number of steps, file offset and length in bytes
+ *   footer:   the offset of the index (long) and the magic number
+ */
+public class RunArchive implements Closeable
+{
+    // Identifies a run archive file ("RAR2").
+    private static final int MAGIC = 0x52415232;
+    private static final int HEADER_SIZE = 12;
+    private static final int FOOTER_SIZE = 12;
+    // The size of an index entry.
+    private static final int ENTRY_SIZE = 21;
+    // The most steps in a block of counts.
+    private static final int BLOCK_STEPS = 256;
+    // Every KEY_INTERVAL-th snapshot is a key snapshot.
+    private static final int KEY_INTERVAL = 16;
+    // A literal run in a snapshot ends at this many zero bytes.
+    private static final int MIN_ZERO_RUN = 3;
+    // The kinds of index entry.
+    private static final int BLOCK = 0, SNAPSHOT = 1, KEY_SNAPSHOT = 2;
+
+    /**
+     * The grid at one step.
+     * @param step The step after which it was taken.
+     * @param plants The species id plus one of the plant in each cell, or 0.
+     * @param animals The species id plus one of the animal in each cell, or 0.
+     */
+    public record Snapshot(int step, byte[] plants, byte[] animals)
+    {
+    }
+
+    /**
+     * One record of the archive.
+     */
+    private record Entry(int kind, int firstStep, int steps, long offset, int length)
+    {
+    }
+
+    private final FileChannel channel;
+    private final int depth;
+    private final int width;
+    // The index entries of the blocks and of the snapshots, in step order.
+    private final List<Entry> blocks = new ArrayList<>();
+    private final List<Entry> snapshots = new ArrayList<>();
+
+    /**
+     * Open an archive for reading.
+     */
+    public static RunArchive open(Path file) throws IOException
+    {
+        return new RunArchive(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    /**
+     * Return a step listener that writes the run to an archive file,
+     * which is complete once the writer is closed.
+     * @param file The file to write, replacing any existing one.
+     * @param snapshotInterval Take a snapshot after every this many steps.
+     */
+    public static Writer writer(Path file, int snapshotInterval) throws IOException
+    {
+        return new Writer(file, snapshotInterval);
+    }
+
+    private RunArchive(FileChannel channel) throws IOException
+    {
+        this.channel = channel;
+        ByteBuffer header = read(0, HEADER_SIZE);
+        ByteBuffer footer = read(channel.size() - FOOTER_SIZE, FOOTER_SIZE);
+        if(header.getInt() != MAGIC || footer.getInt(8) != MAGIC) {
+            throw new IOException("Not a run archive");
+        }
+        depth = header.getInt();
+        width = header.getInt();
+        long indexOffset = footer.getLong();
+        ByteBuffer index = read(indexOffset, (int) (channel.size() - FOOTER_SIZE - indexOffset));
+        int entries = index.getInt();
+        for(int i = 0; i < entries; i++) {
+            Entry entry = new Entry(index.get(), index.getInt(), index.getInt(), index.getLong(), index.getInt());
+            (entry.kind() == BLOCK ? blocks : snapshots).add(entry);
+        }
+    }
+
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Return the first and last steps with counts, or an empty array if
+     * there are none.
+     */
+    public int[] getStepRange()
+    {
+        if(blocks.isEmpty()) {
+            return new int[0];
+        }
+        Entry last = blocks.get(blocks.size() - 1);
+        return new int[] { blocks.get(0).firstStep(), last.firstStep() + last.steps() - 1 };
+    }
+
+    /**
+     * Return the count of each species after the given step, decoding
+     * only the block that holds it.
+     * @return The counts by species id, or null if the step is not held.
+     */
+    public int[] countsAt(int step) throws IOException
+    {
+        int b = find(blocks, step);
+        if(b < 0 || step >= blocks.get(b).firstStep() + blocks.get(b).steps()) {
+            return null;
+        }
+        Entry block = blocks.get(b);
+        ByteBuffer in = read(block.offset(), block.length());
+        int[] counts = new int[Species.COUNT];
+        int wanted = step - block.firstStep();
+        for(int s = 0; s < Species.COUNT; s++) {
+            // Each column must be read through to reach the next.
+            long value = 0;
+            for(int i = 0; i < block.steps(); i++) {
+                value += unzigzag(readVarint(in));
+                if(i == wanted) {
+                    counts[s] = (int) value;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Return the latest snapshot taken at or before the given step,
+     * decoding from the key snapshot before it.
+     * @return The snapshot, or null if none was taken by then.
+     */
+    public Snapshot snapshotAt(int step) throws IOException
+    {
+        int target = find(snapshots, step);
+        if(target < 0) {
+            return null;
+        }
+        int key = target;
+        while(snapshots.get(key).kind() != KEY_SNAPSHOT) {
+            key--;
+        }
+        int cells = depth * width;
+        byte[] raster = new byte[2 * cells];
+        for(int i = key; i <= target; i++) {
+            ByteBuffer in = read(snapshots.get(i).offset(), snapshots.get(i).length());
+            int cell = 0;
+            while(cell < raster.length) {
+                cell += (int) readVarint(in);
+                int literals = (int) readVarint(in);
+                for(int end = cell + literals; cell < end; cell++) {
+                    raster[cell] ^= in.get();
+                }
+            }
+        }
+        return new Snapshot(snapshots.get(target).firstStep(), Arrays.copyOf(raster, cells),
+                            Arrays.copyOfRange(raster, cells, 2 * cells));
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * Return the index of the last entry starting at or before the step,
+     * or -1 if there is none.
+     */
+    private static int find(List<Entry> entries, int step)
+    {
+        int low = 0;
+        int high = entries.size() - 1;
+        int found = -1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            if(entries.get(mid).firstStep() <= step) {
+                found = mid;
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Run archive truncated");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static long readVarint(ByteBuffer in)
+    {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while(b < 0);
+        return value;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value)
+    {
+        while((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long zigzag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes a run to an archive as it proceeds.
+     */
+    public static class Writer implements StepListener, Closeable
+    {
+        private final FileChannel channel;
+        private final int snapshotInterval;
+        private final List<Entry> entries = new ArrayList<>();
+        // The counts of the steps in the block being filled, by species.
+        private final int[][] columns = new int[Species.COUNT][BLOCK_STEPS];
+        private final int[] counts = new int[Species.COUNT];
+        private int blockStart;
+        private int blockSteps;
+        // The grid at the previous snapshot, and this one.
+        private byte[] previous;
+        private byte[] current;
+        private int snapshotCount;
+        // Encodes each record before it is written.
+        private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        private int depth = -1;
+        private int width;
+
+        private Writer(Path file, int snapshotInterval) throws IOException
+        {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                       StandardOpenOption.TRUNCATE_EXISTING);
+            this.snapshotInterval = snapshotInterval;
+        }
+
+        @Override
+        public void stepCompleted(int step, Field field)
+        {
+            try {
+                if(depth < 0) {
+                    start(field);
+                }
+                if(blockSteps == BLOCK_STEPS || (blockSteps > 0 && step != blockStart + blockSteps)) {
+                    writeBlock();
+                }
+                if(blockSteps == 0) {
+                    blockStart = step;
+                }
+                field.getSpeciesCounts(counts);
+                for(int s = 0; s < Species.COUNT; s++) {
+                    columns[s][blockSteps] = counts[s];
+                }
+                blockSteps++;
+                if(snapshotInterval > 0 && step % snapshotInterval == 0) {
+                    writeSnapshot(step, field);
+                }
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Write what remains, then the index, and close the file.
+         */
+        @Override
+        public void close() throws IOException
+        {
+            try {
+                if(depth < 0) {
+                    writeHeader(0, 0);
+                }
+                if(blockSteps > 0) {
+                    writeBlock();
+                }
+                long indexOffset = channel.position();
+                ByteBuffer index = ByteBuffer.allocate(4 + entries.size() * ENTRY_SIZE + FOOTER_SIZE);
+                index.putInt(entries.size());
+                for(Entry entry : entries) {
+                    index.put((byte) entry.kind()).putInt(entry.firstStep()).putInt(entry.steps())
+                         .putLong(entry.offset()).putInt(entry.length());
+                }
+                index.putLong(indexOffset).putInt(MAGIC);
+                write(index.flip());
+            }
+            finally {
+                channel.close();
+            }
+        }
+
+        private void start(Field field) throws IOException
+        {
+            writeHeader(field.getDepth(), field.getWidth());
+            previous = new byte[2 * depth * width];
+            current = new byte[previous.length];
+        }
+
+        private void writeHeader(int depth, int width) throws IOException
+        {
+            this.depth = depth;
+            this.width = width;
+            write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(depth).putInt(width).flip());
+        }
+
+        /**
+         * Write the block being filled and start a new one.
+         */
+        private void writeBlock() throws IOException
+        {
+            record.reset();
+            for(int s = 0; s < Species.COUNT; s++) {
+                long last = 0;
+                for(int i = 0; i < blockSteps; i++) {
+                    writeVarint(record, zigzag(columns[s][i] - last));
+                    last = columns[s][i];
+                }
+            }
+            entries.add(new Entry(BLOCK, blockStart, blockSteps, channel.position(), record.size()));
+            write(ByteBuffer.wrap(record.toByteArray()));
+            blockSteps = 0;
+        }
+
+        private void writeSnapshot(int step, Field field) throws IOException
+        {
+            int cells = depth * width;
+            Arrays.fill(current, (byte) 0);
+            for(Plant aPlant : field.getPlants()) {
+                if(aPlant.isAlive()) {
+                    current[field.indexOf(field.cellOf(aPlant.getLocation()))] = (byte) (aPlant.getSpeciesId() + 1);
+                }
+            }
+            for(Animal anAnimal : field.getAnimals()) {
+                if(anAnimal.isAlive()) {
+                    current[cells + field.indexOf(anAnimal.getCell())] = (byte) (anAnimal.getSpeciesId() + 1);
+                }
+            }
+            boolean key = snapshotCount++ % KEY_INTERVAL == 0;
+            if(key) {
+                Arrays.fill(previous, (byte) 0);
+            }
+            // Runs of unchanged cells, each followed by a run of changes.
+            record.reset();
+            int cell = 0;
+            while(cell < current.length) {
+                int start = cell;
+                while(cell < current.length && current[cell] == previous[cell]) {
+                    cell++;
+                }
+                writeVarint(record, cell - start);
+                int literalStart = cell;
+                int zeros = 0;
+                while(cell < current.length && zeros < MIN_ZERO_RUN) {
+                    zeros = current[cell] == previous[cell] ? zeros + 1 : 0;
+                    cell++;
+                }
+                if(zeros == MIN_ZERO_RUN) {
+                    cell -= zeros;
+                }
+                writeVarint(record, cell - literalStart);
+                for(int i = literalStart; i < cell; i++) {
+                    record.write(current[i] ^ previous[i]);
+                }
+            }
+            entries.add(new Entry(key ? KEY_SNAPSHOT : SNAPSHOT, step, 1, channel.position(),
+                                  record.size()));
+            write(ByteBuffer.wrap(record.toByteArray()));
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        private void write(ByteBuffer buffer) throws IOException
+        {
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
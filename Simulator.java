@@ -1,3 +1,5 @@
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
@@ -17,28 +19,47 @@ public class Simulator
     private static final int DEFAULT_WIDTH = 120;
     // The default depth of the grid.
     private static final int DEFAULT_DEPTH = 80;
-    // Rainforest species creation probabilities.
-    private static final double FERN_CREATION_PROBABILITY = 0.30;
-    private static final double FRUIT_TREE_CREATION_PROBABILITY = 0.25;
-    private static final double CAPYBARA_CREATION_PROBABILITY = 0.09;
-    private static final double HOWLER_MONKEY_CREATION_PROBABILITY = 0.10;
-    private static final double JAGUAR_CREATION_PROBABILITY = 0.015;
-    private static final double HARPY_EAGLE_CREATION_PROBABILITY = 0.018;
     // Clock constants
     private static final int HOURS_PER_DAY = 24;
     private static final int START_HOUR = 6; // start the day at 6am
     private static final int STEPS_PER_HOUR = 10;
-    private static final double WEATHER_CHANGE_PROBABILITY = 0.45;
+    // Steps between resorts of the entity lists for a spatial update order.
+    private static final int RESORT_INTERVAL = 16;
     private static final Random rand = Randomizer.getRandom();
 
     // The current state of the field.
     private Field field;
     // The current step of the simulation.
     private int step;
-    // Current weather
-    private Weather currentWeather;
+    // Current weather over the field
+    private WeatherMap weather;
     // A graphical view of the simulation (null in headless mode).
     private final SimulatorView view;
+    // How the animals are advanced each step.
+    private StepModel stepModel = StepModel.SEQUENTIAL;
+    // Runs the two-phase step model.
+    private final TwoPhaseStepper twoPhaseStepper;
+    // The keys of the random draws in counter-based mode.
+    private final DrawKeys keys = new DrawKeys();
+    // Skips dormant entities in the sequential model (null to act all).
+    private StepScheduler scheduler;
+    // The order the entities act in.
+    private UpdateOrder updateOrder = UpdateOrder.INSERTION;
+    // Watches the populations to end runs early (null if not used).
+    private SteadyStateDetector steadyStateDetector;
+    // Whether printing of the stats is suppressed.
+    private boolean quiet;
+    // Told about the field after every step.
+    private final List<StepListener> stepListeners = new ArrayList<>();
+    // Carries the per-step stats to their sink in place of printing them
+    // (null to print them), and the counts passed to it.
+    private StatsPipeline statsPipeline;
+    private final int[] statsCounts = new int[Species.COUNT];
+    // The field from the previous step, emptied and reused for the next
+    // one so that large grids are not reallocated every step.
+    private Field spareField;
+    // Reuses this simulation's dead entities, if enabled.
+    private final EntityPool pool = new EntityPool();
 
     /**
      * Construct a simulation field with default size.
@@ -63,6 +84,52 @@ public class Simulator
      * @param headless If true, no GUI is created.
      */
     public Simulator(int depth, int width, boolean headless)
+    {
+        this(depth, width, headless, FieldStorage.ARRAY);
+    }
+
+    /**
+     * Create a simulation field with the given size and storage.
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     * @param headless If true, no GUI is created.
+     * @param storage How the field's grid is stored.
+     */
+    public Simulator(int depth, int width, boolean headless, FieldStorage storage)
+    {
+        this(newField(depth, width, storage), headless);
+        reset();
+    }
+
+    /**
+     * Create a simulation with the given empty field.
+     */
+    private Simulator(Field field, boolean headless)
+    {
+        this.field = field;
+        twoPhaseStepper = new TwoPhaseStepper(keys);
+        view = headless ? null : new SimulatorView(field.getDepth(), field.getWidth());
+    }
+
+    /**
+     * Create a simulation with an empty field, for callers that start it
+     * themselves with reset(long) or load, so that the field is not
+     * populated twice. It must not be run until one of them is called.
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     * @param headless If true, no GUI is created.
+     * @param storage How the field's grid is stored.
+     */
+    public static Simulator unpopulated(int depth, int width, boolean headless, FieldStorage storage)
+    {
+        return new Simulator(newField(depth, width, storage), headless);
+    }
+
+    /**
+     * Return an empty field of the given size, or of the default size if
+     * the given one is not valid.
+     */
+    private static Field newField(int depth, int width, FieldStorage storage)
     {
         if(width <= 0 || depth <= 0) {
             System.out.println("The dimensions must be >= zero.");
@@ -70,11 +137,7 @@ public class Simulator
             depth = DEFAULT_DEPTH;
             width = DEFAULT_WIDTH;
         }
-
-        field = new Field(depth, width);
-        view = headless ? null : new SimulatorView(depth, width);
-
-        reset();
+        return new Field(depth, width, storage);
     }
 
     /**
@@ -96,16 +159,47 @@ public class Simulator
     
     /**
      * Run the simulation for the given number of steps.
-     * Stop before the given number of steps if it ceases to be viable.
+     * Stop before the given number of steps if it ceases to be viable,
+     * or if the running thread is interrupted.
      * @param numSteps The number of steps to run for.
+     * @throws IllegalStateException if an unpopulated simulation has
+     *         not been started with reset or load.
      */
     public void simulate(int numSteps)
     {
+        if(weather == null) {
+            throw new IllegalStateException("Start the simulation with reset or load first");
+        }
         reportStats();
-        for(int n = 1; n <= numSteps && field.isViable(); n++) {
+        for(int n = 1; n <= numSteps && field.isViable() && !isSettled()
+                       && !Thread.currentThread().isInterrupted(); n++) {
             simulateOneStep();
             if(view != null) delay(50);
         }
+        if(statsPipeline != null) {
+            statsPipeline.flush();
+        }
+        if(quiet) {
+            return;
+        }
+        if(statsPipeline != null && statsPipeline.getDropped() > 0) {
+            System.out.println(statsPipeline.describe());
+        }
+        if(steadyStateDetector != null && !steadyStateDetector.describe().isEmpty()) {
+            System.out.println(steadyStateDetector.describe());
+        }
+        if(pool.isEnabled()) {
+            System.out.println(pool.describe());
+        }
+    }
+
+    /**
+     * Return whether the steady state detector, if any, has confirmed
+     * that the populations have settled.
+     */
+    private boolean isSettled()
+    {
+        return steadyStateDetector != null && steadyStateDetector.getResult() != null;
     }
     
     /**
@@ -113,76 +207,274 @@ public class Simulator
      * Iterate over the whole field updating the state of each fox and rabbit.
      */
     public void simulateOneStep()
+    {
+        // Births this step reuse this simulation's dead entities.
+        EntityPool outer = EntityPool.use(pool);
+        try {
+            advance();
+        }
+        finally {
+            EntityPool.use(outer);
+        }
+    }
+
+    /**
+     * Advance every entity by one step with this simulation's pool.
+     */
+    private void advance()
     {
         step++;
+        keys.beginStep(step);
         updateWeather();
         // Use a separate Field to store the starting state of
         // the next step.
-        Field nextFieldState = new Field(field.getDepth(), field.getWidth());
+        Field nextFieldState = spareField;
+        if(nextFieldState == null) {
+            nextFieldState = new Field(field);
+            nextFieldState.setTopology(field.getTopology());
+        }
+        else {
+            pool.harvest(nextFieldState);
+            nextFieldState.clear();
+            pool.release();
+        }
+        if(scheduler != null && isWeatherChangeAt(step)) {
+            scheduler.wakePlants(field, weather);
+        }
+        if(updateOrder == UpdateOrder.SHUFFLED
+           || updateOrder != UpdateOrder.INSERTION && step % RESORT_INTERVAL == 1) {
+            keys.key(DrawKeys.Stream.ORDER, 0);
+            field.orderEntities(updateOrder);
+        }
 
-        List<Animal> animals = field.getAnimals();
-        for (Animal anAnimal : animals) {
-            anAnimal.act(field, nextFieldState, isNight(), currentWeather);
+        if(stepModel == StepModel.TWO_PHASE) {
+            twoPhaseStepper.step(field, nextFieldState, isNight(), weather);
+        }
+        else if(scheduler != null) {
+            scheduler.stepAnimals(field, nextFieldState, step, isNight(), stepsToDawn(step), weather);
+        }
+        else {
+            List<Animal> animals = field.getAnimals();
+            for (Animal anAnimal : animals) {
+                // Animals eaten earlier in the step have no location.
+                if(anAnimal.isAlive()) {
+                    keys.key(DrawKeys.Stream.ANIMAL, field.indexOf(anAnimal.getCell()));
+                    anAnimal.act(field, nextFieldState, isNight(), weather.at(field, anAnimal.getCell()));
+                }
+            }
         }
 
-        List<Plant> livePlants = field.getPlants();
-        for (Plant aPlant : livePlants) {
-            aPlant.act(field, nextFieldState, currentWeather);
+        if(scheduler != null) {
+            scheduler.stepPlants(field, nextFieldState, step, stepsToWeatherChange(step), weather);
+        }
+        else {
+            List<Plant> livePlants = field.getPlants();
+            for (Plant aPlant : livePlants) {
+                if(aPlant.isAlive()) {
+                    keys.key(DrawKeys.Stream.PLANT, field.indexOf(field.cellOf(aPlant.getLocation())));
+                    aPlant.act(field, nextFieldState, weather.at(aPlant.getLocation()));
+                }
+            }
         }
         
+        keys.release();
+
         // Replace the old state with the new one.
+        spareField = field;
         field = nextFieldState;
+        pool.verify(field);
 
+        if(steadyStateDetector != null) {
+            steadyStateDetector.observe(step, field.getSpeciesCounts());
+        }
+        for(StepListener listener : stepListeners) {
+            listener.stepCompleted(step, field);
+        }
         reportStats();
         if(view != null) view.showStatus(step, getStatusLabel(), field);
     }
 
+    /**
+     * Choose how the animals are advanced each step.
+     * @param stepModel The step model to use from the next step on.
+     */
+    public void setStepModel(StepModel stepModel)
+    {
+        this.stepModel = stepModel;
+    }
+
+    /**
+     * Choose the order the animals and plants act in each step. Spatial
+     * orders keep the entities acting one after another close together
+     * on the grid (and, once the collector has copied them in list
+     * order, in memory), which helps the caches on large fields.
+     * @param updateOrder The order to use from the next step on.
+     */
+    public void setUpdateOrder(UpdateOrder updateOrder)
+    {
+        this.updateOrder = updateOrder;
+    }
+
+    /**
+     * Choose how the edges of the field are joined.
+     * @param topology The topology to use from the next step on.
+     */
+    public void setTopology(Topology topology)
+    {
+        field.setTopology(topology);
+        if(spareField != null) {
+            spareField.setTopology(topology);
+        }
+    }
+
+    /**
+     * Choose whether entities that declare themselves dormant, such as
+     * sleeping capybaras and immature plants, are carried over instead
+     * of acting (see StepScheduler).
+     * @param scheduled true to skip dormant entities.
+     */
+    public void setScheduled(boolean scheduled)
+    {
+        if(scheduler != null) {
+            scheduler.setFastForward(false);
+        }
+        this.scheduler = scheduled ? new StepScheduler(keys) : null;
+    }
+
+    /**
+     * Choose whether the plants of tiles that no animal is near and
+     * where no plant nearby can spread are set aside until something
+     * can happen to them, then aged in one go (see PlantLayer). Turning
+     * it on also turns on scheduling.
+     * @param fastForward true to set quiet plants aside.
+     */
+    public void setFastForward(boolean fastForward)
+    {
+        if(fastForward && scheduler == null) {
+            setScheduled(true);
+        }
+        if(scheduler != null) {
+            scheduler.setFastForward(fastForward);
+        }
+    }
+
+    /**
+     * Choose whether every random decision is drawn from a hash of the
+     * seed, the step and the deciding animal or plant instead of from
+     * shared sequences (see Randomizer), so that results do not depend
+     * on how the work is split between threads. The hash is of the seed
+     * given to reset or load, and each simulator keys its own draws.
+     * @param counterBased true for counter-based draws.
+     */
+    public void setCounterRandom(boolean counterBased)
+    {
+        keys.setCounterBased(counterBased);
+    }
+
+    /**
+     * Choose whether the stats and summaries are printed to stdout.
+     * @param quiet true to print nothing.
+     */
+    public void setQuiet(boolean quiet)
+    {
+        this.quiet = quiet;
+    }
+
+    /**
+     * Choose whether this simulation's dead animals and plants are reused
+     * for its births (see EntityPool). Other simulations, even on the
+     * same thread, are not affected.
+     * @param pooled true to reuse dead entities.
+     * @param verify true to check every step that no reused entity is
+     *               still referenced from the field.
+     */
+    public void setPooling(boolean pooled, boolean verify)
+    {
+        pool.configure(pooled, verify);
+    }
+
+    /**
+     * Publish each step's summary to the pipeline instead of printing
+     * the counts on this thread. The pipeline is flushed at the end of
+     * each run but not closed: that is left to whoever created it.
+     * @param pipeline The pipeline, or null to print the counts.
+     */
+    public void setStatsPipeline(StatsPipeline pipeline)
+    {
+        this.statsPipeline = pipeline;
+    }
+
+    /**
+     * Watch the populations with the given detector and stop simulate()
+     * once it confirms a steady state.
+     * @param detector The detector, or null to always run to the end.
+     */
+    public void setSteadyStateDetector(SteadyStateDetector detector)
+    {
+        this.steadyStateDetector = detector;
+    }
+
+    /**
+     * Tell the listener about the field after every step.
+     * @param listener The listener to add.
+     */
+    public void addStepListener(StepListener listener)
+    {
+        stepListeners.add(listener);
+    }
+
     /**
      * Reset the simulation to a starting position.
      */
     public void reset()
+    {
+        reset(rand.nextLong());
+    }
+
+    /**
+     * Reset the simulation to a starting position decided by the seed.
+     * @param seed The seed for the starting population.
+     */
+    public void reset(long seed)
     {
         step = 0;
-        currentWeather = Weather.random(rand);
-        populate();
+        keys.setSeed(seed);
+        keys.beginStep(step);
+        keys.key(DrawKeys.Stream.SETUP, 0);
+        weather = new WeatherMap(field.getDepth(), field.getWidth(), rand);
+        field.clear();
+        PopulationInitializer.populate(field, seed);
+        keys.release();
         if(view != null) view.showStatus(step, getStatusLabel(), field);
     }
-    
+
     /**
-     * Randomly populate the field with foxes and rabbits.
+     * Reset the simulation to the population in a raster file (see
+     * PopulationRaster). The raster must match the field's size.
+     * @param raster The raster file.
+     * @param seed The seed for the ages and other state of the population.
      */
-    private void populate()
+    public void load(Path raster, long seed) throws IOException
     {
-        Random rand = Randomizer.getRandom();
+        step = 0;
+        keys.setSeed(seed);
+        keys.beginStep(step);
+        keys.key(DrawKeys.Stream.SETUP, 0);
+        weather = new WeatherMap(field.getDepth(), field.getWidth(), rand);
         field.clear();
-        for(int row = 0; row < field.getDepth(); row++) {
-            for(int col = 0; col < field.getWidth(); col++) {
-                Location location = new Location(row, col);
-                // Plants occupy the plant layer independently of animals.
-                double plantRoll = rand.nextDouble();
-                if(plantRoll <= FERN_CREATION_PROBABILITY) {
-                    field.placePlant(new Fern(true, location), location);
-                } else if(plantRoll <= FERN_CREATION_PROBABILITY + FRUIT_TREE_CREATION_PROBABILITY) {
-                    field.placePlant(new FruitTree(true, location), location);
-                }
-                // Animals occupy the animal layer.
-                double animalRoll = rand.nextDouble();
-                if(animalRoll <= CAPYBARA_CREATION_PROBABILITY) {
-                    field.placeAnimal(new Capybara(true, location), location);
-                }
-                else if(animalRoll <= CAPYBARA_CREATION_PROBABILITY + HOWLER_MONKEY_CREATION_PROBABILITY) {
-                    field.placeAnimal(new HowlerMonkey(true, location), location);
-                }
-                else if(animalRoll <= CAPYBARA_CREATION_PROBABILITY + HOWLER_MONKEY_CREATION_PROBABILITY
-                        + JAGUAR_CREATION_PROBABILITY) {
-                    field.placeAnimal(new Jaguar(true, location), location);
-                }
-                else if(animalRoll <= CAPYBARA_CREATION_PROBABILITY + HOWLER_MONKEY_CREATION_PROBABILITY
-                        + JAGUAR_CREATION_PROBABILITY + HARPY_EAGLE_CREATION_PROBABILITY) {
-                    field.placeAnimal(new HarpyEagle(true, location), location);
-                }
-            }
-        }
+        PopulationRaster.read(raster, field, seed);
+        keys.release();
+        if(view != null) view.showStatus(step, getStatusLabel(), field);
+    }
+
+    /**
+     * Save the current population to a raster file (see PopulationRaster),
+     * from which a later run can be started with load.
+     * @param raster The file to write, replacing any existing one.
+     */
+    public void save(Path raster) throws IOException
+    {
+        PopulationRaster.write(field, raster);
     }
 
     /**
@@ -191,7 +483,14 @@ public class Simulator
     public void reportStats()
     {
         //System.out.print("Step: " + step + " ");
-        field.fieldStats();
+        if(statsPipeline != null) {
+            Weather dominant = weather.dominant();
+            statsPipeline.publish(step, getDayNumber(), getHourOfDay(), dominant, weather.share(dominant),
+                                  field.getSpeciesCounts(statsCounts));
+        }
+        else if(!quiet) {
+            field.fieldStats();
+        }
     }
 
     /**
@@ -199,6 +498,16 @@ public class Simulator
      * @return currentHour
      */
     private int getHourOfDay()
+    {
+        return hourOfDay(step);
+    }
+
+    /**
+     * Gets the hour of the day at the given step
+     * @param step The step
+     * @return hour
+     */
+    private static int hourOfDay(int step)
     {
         int hoursPassed = step / STEPS_PER_HOUR;
         int currentHour = (START_HOUR + hoursPassed) % HOURS_PER_DAY;
@@ -213,10 +522,44 @@ public class Simulator
      */
     private boolean isNight()
     {
-        int hour = getHourOfDay();
+        return isNightAt(step);
+    }
+
+    /**
+     * Determine whether it is night at the given step.
+     * @param step The step
+     * @return boolean
+     */
+    static boolean isNightAt(int step)
+    {
+        int hour = hourOfDay(step);
         return hour < 6 || hour >= 21;
     }
 
+    /**
+     * Return the number of steps after the given one that are still
+     * night, up to the first day step.
+     * @param step The step
+     * @return steps
+     */
+    static int stepsToDawn(int step)
+    {
+        int steps = 0;
+        while(isNightAt(step + steps + 1)) {
+            steps++;
+        }
+        return steps;
+    }
+
+    /**
+     * Return the number of steps after the given one before the weather
+     * may next change.
+     */
+    static int stepsToWeatherChange(int step)
+    {
+        return STEPS_PER_HOUR - 1 - step % STEPS_PER_HOUR;
+    }
+
     /**
      * Get the current day number
      * @return currentDay
@@ -234,12 +577,23 @@ public class Simulator
      */
     private String getTimeLabel()
     {
-        return "Day " + getDayNumber() + " " + String.format("%02d:00", getHourOfDay());
+        return timeLabel(getDayNumber(), getHourOfDay());
+    }
+
+    /**
+     * Get the label for the given day and hour
+     * @return timeLabel
+     */
+    static String timeLabel(int day, int hour)
+    {
+        return "Day " + day + " " + String.format("%02d:00", hour);
     }
 
     private String getStatusLabel()
     {
-        return getTimeLabel() + " | Weather: " + currentWeather.getLabel();
+        Weather dominant = weather.dominant();
+        return getTimeLabel() + " | Weather: " + dominant.getLabel()
+               + String.format(" (%.0f%%)", 100 * weather.share(dominant));
     }
 
     /**
@@ -247,14 +601,20 @@ public class Simulator
      */
     private void updateWeather()
     {
-        if(currentWeather == null) {
-            currentWeather = Weather.random(rand);
-            return;
-        }
-        if(step % STEPS_PER_HOUR == 0 && rand.nextDouble() <= WEATHER_CHANGE_PROBABILITY) {
-            currentWeather = Weather.random(rand);
+        if(isWeatherChangeAt(step)) {
+            keys.key(DrawKeys.Stream.WEATHER, 0);
+            weather.advance(rand);
         }
     }
+
+    /**
+     * Return whether the weather moves on as the given step is entered:
+     * it does once per hour.
+     */
+    static boolean isWeatherChangeAt(int step)
+    {
+        return step % STEPS_PER_HOUR == 0;
+    }
     
     /**
      * Pause for a given time.
@@ -266,7 +626,8 @@ public class Simulator
             Thread.sleep(milliseconds);
         }
         catch(InterruptedException e) {
-            // ignore
+            // Keep the interrupt so that simulate() stops.
+            Thread.currentThread().interrupt();
         }
     }
 }
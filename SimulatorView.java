@@ -116,9 +116,9 @@ public class SimulatorView extends JFrame
 
         for(int row = 0; row < field.getDepth(); row++) {
             for(int col = 0; col < field.getWidth(); col++) {
-                Location loc = new Location(row, col);
-                Plant plant = field.getPlantAt(loc);
-                Animal animal = field.getAnimalAt(loc);
+                int cell = field.cellOf(row, col);
+                Plant plant = field.getPlantAt(cell);
+                Animal animal = field.getAnimalAt(cell);
                 // Always draw the empty background first.
                 fieldView.drawMark(col, row, EMPTY_COLOR);
                 if(animal != null) {
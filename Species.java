@@ -0,0 +1,87 @@
+import java.util.Random;
+
+/**
+ * The registry of species in the simulation. Each species has a small
+ * integer id (its ordinal) used to index per-species tables such as the
+ * diet matrix, and knows how to create a new individual.
+ */
+public enum Species
+{
+    FERN("Fern", Fern::new),
+    FRUIT_TREE("FruitTree", FruitTree::new),
+    CAPYBARA("Capybara", Capybara::new),
+    HOWLER_MONKEY("HowlerMonkey", HowlerMonkey::new),
+    JAGUAR("Jaguar", Jaguar::new),
+    HARPY_EAGLE("HarpyEagle", HarpyEagle::new);
+
+    // The number of species.
+    public static final int COUNT = values().length;
+    // Species by id.
+    private static final Species[] byId = values();
+
+    private final String label;
+    // Creates an individual of the species.
+    private final Factory factory;
+
+    /**
+     * A constructor of one species: (randomAge, location, rand).
+     */
+    private interface Factory
+    {
+        Object create(boolean randomAge, Location location, Random rand);
+    }
+
+    Species(String label, Factory factory)
+    {
+        this.label = label;
+        this.factory = factory;
+    }
+
+    /**
+     * Return the species with the given id.
+     */
+    public static Species byId(int id)
+    {
+        return byId[id];
+    }
+
+    public int getId()
+    {
+        return ordinal();
+    }
+
+    public String getLabel()
+    {
+        return label;
+    }
+
+    /**
+     * Return whether this species lives in the plant layer.
+     */
+    public boolean isPlant()
+    {
+        return this == FERN || this == FRUIT_TREE;
+    }
+
+    /**
+     * Create a new animal of this species.
+     * @param randomAge If true, the animal will have a random age.
+     * @param location Where it lives.
+     * @param rand The random generator deciding its initial state.
+     */
+    public Animal createAnimal(boolean randomAge, Location location, Random rand)
+    {
+        return (Animal) factory.create(randomAge, location, rand);
+    }
+
+    /**
+     * Create a new plant of this species.
+     * @param randomAge If true, the plant will have a random age.
+     * @param location Where it grows.
+     * @param rand The random generator deciding its initial state.
+     */
+    public Plant createPlant(boolean randomAge, Location location, Random rand)
+    {
+        return (Plant) factory.create(randomAge, location, rand);
+    }
+}
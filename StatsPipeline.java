@@ -0,0 +1,305 @@
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Carries a summary of every step (its time, weather and population
+ * counts) from the simulation thread to a sink on a background exporter
+ * thread, so that a slow sink such as the console does not slow the
+ * steps down.
+ *
+ * Summaries are copied into a preallocated ring buffer with a single
+ * producer (the simulation thread) and a single consumer (the exporter
+ * thread); publishing allocates nothing and takes no locks. When the
+ * buffer is full the producer follows the chosen backpressure policy:
+ *  - BLOCK waits for the exporter, so no summary is lost;
+ *  - DROP discards the new summary;
+ *  - SAMPLE discards it and publishes only every other step from then
+ *    on, halving the rate again each time the buffer fills and doubling
+ *    it back once the buffer is mostly empty.
+ * A side with nothing to do parks until the other wakes it: the exporter
+ * while the buffer is empty, and the producer while it waits for room
+ * (BLOCK) or in flush.
+ *
+ * Whoever creates a pipeline owns it and must close it once done with
+ * it, which drains it and stops the exporter. A Simulator given the
+ * pipeline only publishes to it and flushes it; it never closes it.
+ */
+public class StatsPipeline implements AutoCloseable
+{
+    /** What to do with a summary when the buffer is full. */
+    public enum Backpressure { BLOCK, DROP, SAMPLE }
+
+    /**
+     * The summary of one step. Summaries are reused once the sink
+     * returns, so must not be kept.
+     */
+    public static class Summary
+    {
+        private int step;
+        private int day;
+        private int hour;
+        private Weather weather;
+        private double weatherShare;
+        private final int[] counts = new int[Species.COUNT];
+
+        public int getStep()
+        {
+            return step;
+        }
+
+        public int getDay()
+        {
+            return day;
+        }
+
+        public int getHour()
+        {
+            return hour;
+        }
+
+        /**
+         * Return the weather over most of the field.
+         */
+        public Weather getWeather()
+        {
+            return weather;
+        }
+
+        /**
+         * Return the share of the field with the dominant weather.
+         */
+        public double getWeatherShare()
+        {
+            return weatherShare;
+        }
+
+        /**
+         * Return the number of live members of the species.
+         */
+        public int getCount(Species species)
+        {
+            return counts[species.getId()];
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Step ").append(step).append(" | ").append(Simulator.timeLabel(day, hour))
+              .append(" | Weather: ").append(weather.getLabel())
+              .append(String.format(" (%.0f%%) |", 100 * weatherShare));
+            for(Species species : Species.values()) {
+                sb.append(' ').append(species.getLabel()).append(": ").append(counts[species.getId()]);
+            }
+            return sb.toString();
+        }
+    }
+
+    // The slots of the ring buffer; the capacity is a power of two.
+    private final Summary[] slots;
+    private final int mask;
+    private final Backpressure backpressure;
+    private final Consumer<Summary> sink;
+    // The number of summaries published and passed to the sink so far.
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final Thread exporter;
+    // Set while the exporter is parked or about to park.
+    private volatile boolean exporterWaiting;
+    // The thread parked until summaries are consumed, if any.
+    private volatile Thread producerWaiting;
+    private volatile boolean closed;
+    // Why the sink stopped, if it failed.
+    private volatile RuntimeException failure;
+    // Written by the producer only.
+    private long dropped;
+    private int sampleInterval = 1;
+
+    /**
+     * Create a pipeline and start its exporter thread.
+     * @param capacity The number of summaries the buffer holds; rounded
+     *                 up to a power of two.
+     * @param backpressure What to do when the buffer is full.
+     * @param sink Receives the summaries on the exporter thread.
+     */
+    public StatsPipeline(int capacity, Backpressure backpressure, Consumer<Summary> sink)
+    {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        slots = new Summary[size];
+        for(int i = 0; i < size; i++) {
+            slots[i] = new Summary();
+        }
+        mask = size - 1;
+        this.backpressure = backpressure;
+        this.sink = sink;
+        exporter = new Thread(this::export, "stats-exporter");
+        exporter.setDaemon(true);
+        exporter.start();
+    }
+
+    /**
+     * Return a sink printing each summary as a line on the stream.
+     */
+    public static Consumer<Summary> printer(PrintStream out)
+    {
+        return summary -> out.println(summary);
+    }
+
+    /**
+     * Publish the summary of a step. Call from one thread only.
+     * @param counts The live count of each species, by species id.
+     * @return true if published, false if dropped or skipped.
+     * @throws IllegalStateException if the sink has failed.
+     */
+    public boolean publish(int step, int day, int hour, Weather weather, double weatherShare, int[] counts)
+    {
+        if(failure != null) {
+            throw new IllegalStateException("The stats sink failed", failure);
+        }
+        if(backpressure == Backpressure.SAMPLE && step % sampleInterval != 0) {
+            return false;
+        }
+        long sequence = published.get();
+        long used = sequence - consumed.get();
+        if(used == slots.length) {
+            if(backpressure == Backpressure.BLOCK) {
+                awaitConsumed(sequence - slots.length + 1);
+            }
+            else {
+                dropped++;
+                if(backpressure == Backpressure.SAMPLE) {
+                    sampleInterval *= 2;
+                }
+                return false;
+            }
+        }
+        else if(backpressure == Backpressure.SAMPLE && sampleInterval > 1 && used < slots.length / 4) {
+            sampleInterval /= 2;
+        }
+        Summary summary = slots[(int) sequence & mask];
+        summary.step = step;
+        summary.day = day;
+        summary.hour = hour;
+        summary.weather = weather;
+        summary.weatherShare = weatherShare;
+        System.arraycopy(counts, 0, summary.counts, 0, Species.COUNT);
+        // A full write, so that the exporter cannot miss it between
+        // checking the buffer and saying it is waiting.
+        published.set(sequence + 1);
+        if(exporterWaiting) {
+            LockSupport.unpark(exporter);
+        }
+        return true;
+    }
+
+    /**
+     * Wait until the sink has been given every summary published.
+     * @throws IllegalStateException if the sink has failed.
+     */
+    public void flush()
+    {
+        awaitConsumed(published.get());
+    }
+
+    /**
+     * Pass the remaining summaries to the sink and stop the exporter.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        LockSupport.unpark(exporter);
+        try {
+            exporter.join();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Return the number of summaries dropped because the buffer was full.
+     */
+    public long getDropped()
+    {
+        return dropped;
+    }
+
+    /**
+     * Describe how many summaries have been exported and dropped.
+     */
+    public String describe()
+    {
+        String sampling = backpressure == Backpressure.SAMPLE ? ", sampling every " + sampleInterval + " steps" : "";
+        return "Stats: " + consumed.get() + " exported, " + dropped + " dropped" + sampling;
+    }
+
+    /**
+     * Wait until the given number of summaries have been consumed.
+     */
+    private void awaitConsumed(long count)
+    {
+        if(consumed.get() >= count) {
+            return;
+        }
+        producerWaiting = Thread.currentThread();
+        try {
+            // Check again after saying we are waiting: the exporter only
+            // wakes a thread it sees waiting.
+            while(consumed.get() < count) {
+                if(failure != null) {
+                    throw new IllegalStateException("The stats sink failed", failure);
+                }
+                LockSupport.park(this);
+            }
+        }
+        finally {
+            producerWaiting = null;
+        }
+    }
+
+    /**
+     * Pass summaries to the sink as they are published, until closed and
+     * drained.
+     */
+    private void export()
+    {
+        try {
+            while(true) {
+                long sequence = consumed.get();
+                if(sequence == published.get()) {
+                    if(closed && sequence == published.get()) {
+                        return;
+                    }
+                    exporterWaiting = true;
+                    // Check again after saying we are waiting, as above.
+                    if(sequence == published.get() && !closed) {
+                        LockSupport.park(this);
+                    }
+                    exporterWaiting = false;
+                    continue;
+                }
+                sink.accept(slots[(int) sequence & mask]);
+                consumed.set(sequence + 1);
+                wakeProducer();
+            }
+        }
+        catch(RuntimeException e) {
+            failure = e;
+            wakeProducer();
+        }
+    }
+
+    /**
+     * Wake the producer if it is waiting for summaries to be consumed.
+     */
+    private void wakeProducer()
+    {
+        Thread waiting = producerWaiting;
+        if(waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+}
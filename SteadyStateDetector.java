@@ -0,0 +1,242 @@
+import java.util.Arrays;
+
+/**
+ * Watch the population of each species step by step and decide when a
+ * run has settled, so that it can be stopped early.
+ * 
+ * The detector keeps the last two windows of counts for each species
+ * and, every few steps, compares them. The run has settled when, for
+ * every species still alive, the mean and the spread agree between the
+ * two windows within the tolerance, and each species either is flat
+ * (an equilibrium) or oscillates with the same dominant period in both
+ * windows (a limit cycle). The period is found by autocorrelation.
+ * 
+ * The detector also records the step at which each species died out.
+ */
+public class SteadyStateDetector
+{
+    /** The kinds of steady state. */
+    public enum Kind { EQUILIBRIUM, LIMIT_CYCLE }
+
+    /**
+     * A confirmed steady state.
+     * @param kind Equilibrium or limit cycle.
+     * @param step The step at which it was confirmed.
+     * @param period The cycle period in steps (0 for an equilibrium).
+     * @param means Mean count of each species over the last window.
+     * @param amplitudes Amplitude of each species' oscillation over the
+     *                   last window (sqrt(2) times the standard deviation).
+     */
+    public record Result(Kind kind, int step, int period, double[] means, double[] amplitudes)
+    {
+    }
+
+    // How often, in steps, the windows are compared.
+    private static final int CHECK_INTERVAL = 10;
+    // The autocorrelation a period must reach to count as a cycle.
+    private static final double MIN_CORRELATION = 0.5;
+
+    // The number of steps in each window.
+    private final int window;
+    // The relative difference allowed between the windows.
+    private final double tolerance;
+    // The last two windows of counts, per species, as ring buffers.
+    private final int[][] history;
+    // The number of steps observed.
+    private int observed;
+    // Whether each species has been seen alive, and when it died out.
+    private final boolean[] seenAlive;
+    private final int[] extinctionStep;
+    // The steady state, once confirmed.
+    private Result result;
+
+    /**
+     * Create a detector with a 200-step window and a 10% tolerance.
+     */
+    public SteadyStateDetector()
+    {
+        this(200, 0.1);
+    }
+
+    /**
+     * Create a detector.
+     * @param window The number of steps in each of the compared windows.
+     * @param tolerance The relative difference allowed between windows.
+     */
+    public SteadyStateDetector(int window, double tolerance)
+    {
+        this.window = window;
+        this.tolerance = tolerance;
+        history = new int[Species.COUNT][2 * window];
+        seenAlive = new boolean[Species.COUNT];
+        extinctionStep = new int[Species.COUNT];
+        Arrays.fill(extinctionStep, -1);
+    }
+
+    /**
+     * Record the counts after a step.
+     * @param step The step just completed.
+     * @param counts The number alive of each species, by species id.
+     * @return true if a steady state has been confirmed.
+     */
+    public boolean observe(int step, int[] counts)
+    {
+        int slot = observed % (2 * window);
+        for(int s = 0; s < Species.COUNT; s++) {
+            history[s][slot] = counts[s];
+            if(counts[s] > 0) {
+                seenAlive[s] = true;
+            }
+            else if(seenAlive[s] && extinctionStep[s] < 0) {
+                extinctionStep[s] = step;
+            }
+        }
+        observed++;
+        if(result == null && observed >= 2 * window && observed % CHECK_INTERVAL == 0) {
+            result = check(step);
+        }
+        return result != null;
+    }
+
+    /**
+     * Return the confirmed steady state, or null if there is none yet.
+     */
+    public Result getResult()
+    {
+        return result;
+    }
+
+    /**
+     * Return the step at which the species died out, or -1 if it has not.
+     */
+    public int getExtinctionStep(Species species)
+    {
+        return extinctionStep[species.getId()];
+    }
+
+    /**
+     * Describe the steady state and any extinctions.
+     */
+    public String describe()
+    {
+        StringBuilder sb = new StringBuilder();
+        if(result != null) {
+            sb.append("Steady state (").append(result.kind() == Kind.EQUILIBRIUM ? "equilibrium" : "limit cycle")
+              .append(") at step ").append(result.step());
+            if(result.kind() == Kind.LIMIT_CYCLE) {
+                sb.append(", period ").append(result.period());
+            }
+            sb.append(':');
+            for(Species species : Species.values()) {
+                int s = species.getId();
+                if(result.means()[s] > 0) {
+                    sb.append(' ').append(species.getLabel())
+                      .append(String.format(" %.1f±%.1f", result.means()[s], result.amplitudes()[s]));
+                }
+            }
+        }
+        for(Species species : Species.values()) {
+            if(extinctionStep[species.getId()] >= 0) {
+                sb.append(sb.length() > 0 ? "; " : "").append(species.getLabel())
+                  .append(" extinct at step ").append(extinctionStep[species.getId()]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compare the two windows, returning the steady state if they agree.
+     */
+    private Result check(int step)
+    {
+        double[] means = new double[Species.COUNT];
+        double[] amplitudes = new double[Species.COUNT];
+        boolean cyclic = false;
+        int period = 0;
+        double strongest = 0;
+        double[] older = new double[window];
+        double[] recent = new double[window];
+        for(int s = 0; s < Species.COUNT; s++) {
+            // Unroll the ring buffer: the oldest value is at observed.
+            for(int i = 0; i < window; i++) {
+                older[i] = history[s][(observed + i) % (2 * window)];
+                recent[i] = history[s][(observed + window + i) % (2 * window)];
+            }
+            double olderMean = mean(older);
+            double recentMean = mean(recent);
+            double olderSpread = deviation(older, olderMean);
+            double recentSpread = deviation(recent, recentMean);
+            double scale = Math.max(recentMean, 1);
+            if(Math.abs(recentMean - olderMean) > tolerance * scale
+                    || Math.abs(recentSpread - olderSpread) > tolerance * Math.max(recentSpread, scale * tolerance)) {
+                return null;
+            }
+            means[s] = recentMean;
+            amplitudes[s] = Math.sqrt(2) * recentSpread;
+            if(recentSpread > tolerance * scale) {
+                // Not flat, so it must be cycling with a stable period.
+                int recentPeriod = dominantPeriod(recent, recentMean);
+                int olderPeriod = dominantPeriod(older, olderMean);
+                if(recentPeriod == 0 || Math.abs(recentPeriod - olderPeriod) > Math.max(1, recentPeriod / 10)) {
+                    return null;
+                }
+                cyclic = true;
+                if(recentSpread / scale > strongest) {
+                    strongest = recentSpread / scale;
+                    period = recentPeriod;
+                }
+            }
+        }
+        return new Result(cyclic ? Kind.LIMIT_CYCLE : Kind.EQUILIBRIUM, step, period, means, amplitudes);
+    }
+
+    /**
+     * Return the lag of the first autocorrelation peak after the series
+     * has decorrelated, or 0 if there is no strong enough peak.
+     */
+    private int dominantPeriod(double[] values, double mean)
+    {
+        double variance = 0;
+        for(double v : values) {
+            variance += (v - mean) * (v - mean);
+        }
+        if(variance == 0) {
+            return 0;
+        }
+        boolean decorrelated = false;
+        double previous = 1;
+        for(int lag = 1; lag <= values.length / 2; lag++) {
+            double sum = 0;
+            for(int i = lag; i < values.length; i++) {
+                sum += (values[i] - mean) * (values[i - lag] - mean);
+            }
+            double correlation = sum / variance;
+            if(correlation < 0) {
+                decorrelated = true;
+            }
+            else if(decorrelated && correlation < previous && previous >= MIN_CORRELATION) {
+                return lag - 1;
+            }
+            previous = correlation;
+        }
+        return 0;
+    }
+
+    private static double mean(double[] values)
+    {
+        double sum = 0;
+        for(double v : values) {
+            sum += v;
+        }
+        return sum / values.length;
+    }
+
+    private static double deviation(double[] values, double mean)
+    {
+        double sum = 0;
+        for(double v : values) {
+            sum += (v - mean) * (v - mean);
+        }
+        return Math.sqrt(sum / values.length);
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * Something that is told about the field after every simulation step,
+ * e.g. to gather statistics without the simulator knowing about them.
+ */
+public interface StepListener
+{
+    /**
+     * Called once a step has been completed.
+     * @param step The step just completed.
+     * @param field The field after the step. It is reused by later
+     *              steps, so it must not be kept.
+     */
+    void stepCompleted(int step, Field field);
+}
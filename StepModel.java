@@ -0,0 +1,10 @@
+/**
+ * Ways the simulator can advance the animals during one step.
+ */
+public enum StepModel
+{
+    // Each animal acts in turn, changing the fields as it goes.
+    SEQUENTIAL,
+    // All animals plan in parallel, then the plans are committed in bulk.
+    TWO_PHASE
+}
@@ -0,0 +1,202 @@
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Advances the animals and plants of a sequential step, dispatching act
+ * only to those whose state can change in ways other than ageing.
+ *
+ * After acting, each entity declares how many of the following steps
+ * it can be carried over instead (see Animal.dormantSteps and
+ * Plant.dormantSteps), e.g. a capybara asleep until dawn, or a plant
+ * until it matures or, out of the rain, until the weather may next
+ * change; so through a dry spell a plant acts once an hour instead of
+ * every step. Until then it is carried over: it ages, gets hungrier and
+ * stays where it is, without looking for food or predators.
+ * A dormant animal is woken early when one of its predators is next to
+ * it at the start of a step, which is found by looking around each
+ * predator rather than around each sleeper.
+ *
+ * A carried-over animal does what it would have done acting, as a
+ * sleeping capybara: it breeds and checks for predators, drawing the
+ * same numbers, so a scheduled run matches one that acts every entity
+ * (see DifferentialHarness). Plants that are carried over behave
+ * exactly as if they acted.
+ *
+ * Carried-over plants are still placed into every new field state. With
+ * fast-forwarding on, the plants of tiles that no animal is near and
+ * where no plant nearby can spread are instead set aside in a
+ * PlantLayer, which persists from step to step, and not visited at all
+ * until an animal comes near, the weather turns or the field is read;
+ * then they are aged by the steps missed in one go. Through a long dry
+ * spell on a large map with few animals most plants cost nothing. The
+ * plants put back join the end of the field's list, so plants act in a
+ * different order from then on; the ecology is the same (see
+ * DifferentialHarness) but runs are not identical step for step.
+ */
+public class StepScheduler
+{
+    // Whether each species hunts any animal species.
+    private static final boolean[] huntsAnimals = new boolean[Species.COUNT];
+    // Whether some plant spreads in each weather, by ordinal.
+    private static final boolean[] spreadingWeather = new boolean[Weather.values().length];
+
+    static {
+        for(Species predator : Species.values()) {
+            for(Species prey : Species.values()) {
+                if(!prey.isPlant() && Diet.isPrey(predator.getId(), prey.getId())) {
+                    huntsAnimals[predator.getId()] = true;
+                }
+            }
+        }
+        for(Species species : Species.values()) {
+            if(species.isPlant()) {
+                Plant sample = species.createPlant(false, new Location(0, 0), new Random(0));
+                for(Weather weather : Weather.values()) {
+                    spreadingWeather[weather.ordinal()] |= sample.spreadsIn(weather);
+                }
+            }
+        }
+    }
+
+    // Receives the neighbours of each predator.
+    private final int[] neighbours = new int[8];
+    // Keys the draws of each entity that acts.
+    private final DrawKeys keys;
+    // Whether the plants of quiet tiles are set aside, and where.
+    private boolean fastForward;
+    private PlantLayer plantLayer;
+
+    /**
+     * Create a scheduler keying the draws of the entities that act.
+     */
+    public StepScheduler(DrawKeys keys)
+    {
+        this.keys = keys;
+    }
+
+    /**
+     * Choose whether the plants of quiet tiles are set aside until they
+     * are needed (see PlantLayer). When turned off, those set aside are
+     * put back in the field holding them.
+     */
+    public void setFastForward(boolean fastForward)
+    {
+        this.fastForward = fastForward;
+        if(!fastForward && plantLayer != null) {
+            plantLayer.thawAll();
+            plantLayer.clear();
+            plantLayer = null;
+        }
+    }
+
+    /**
+     * At the start of a step in which the weather may change, put back
+     * the plants set aside that are now next to weather some plant
+     * spreads in.
+     * @param currentField The field holding the state before the step.
+     * @param weather The weather for the step.
+     */
+    public void wakePlants(Field currentField, WeatherMap weather)
+    {
+        if(plantLayer != null && plantLayer.isHeldBy(currentField)) {
+            plantLayer.findBusyTiles(currentField, weather, spreadingWeather);
+            plantLayer.thawBusy();
+        }
+    }
+
+    /**
+     * Advance every animal in the current field into the next field
+     * state.
+     * @param step The step being entered.
+     * @param stepsToDawn The number of steps after this one that are
+     *                    still night (0 by day).
+     * @param weather Current weather over the field
+     */
+    public void stepAnimals(Field currentField, Field nextFieldState, int step, boolean isNight,
+                            int stepsToDawn, WeatherMap weather)
+    {
+        List<Animal> animals = currentField.getAnimals();
+        wakePrey(currentField, step);
+        for(Animal anAnimal : animals) {
+            if(!anAnimal.isAlive()) {
+                continue;
+            }
+            keys.key(DrawKeys.Stream.ANIMAL, currentField.indexOf(anAnimal.getCell()));
+            if(anAnimal.getDormantUntil() > step) {
+                anAnimal.carryOver(currentField, nextFieldState, isNight);
+            }
+            else {
+                anAnimal.act(currentField, nextFieldState, isNight, weather.at(currentField, anAnimal.getCell()));
+                if(anAnimal.isAlive()) {
+                    anAnimal.setDormantUntil(step + 1 + anAnimal.dormantSteps(stepsToDawn));
+                }
+            }
+        }
+    }
+
+    /**
+     * Advance every plant in the current field into the next field state.
+     * @param step The step being entered.
+     * @param stepsUnchanged The number of steps after this one before
+     *                       the weather may change.
+     * @param weather Current weather over the field
+     */
+    public void stepPlants(Field currentField, Field nextFieldState, int step, int stepsUnchanged,
+                           WeatherMap weather)
+    {
+        if(fastForward) {
+            if(plantLayer == null) {
+                plantLayer = new PlantLayer(currentField.getDepth(), currentField.getWidth());
+            }
+            currentField.setPlantLayer(plantLayer);
+            nextFieldState.setPlantLayer(plantLayer);
+            // The animals have moved: find the tiles they may reach next step.
+            plantLayer.findBusyTiles(nextFieldState, weather, spreadingWeather);
+        }
+        for(Plant aPlant : currentField.getPlacedPlants()) {
+            if(!aPlant.isAlive()) {
+                continue;
+            }
+            if(plantLayer != null && !plantLayer.isBusy(aPlant.getLocation())) {
+                plantLayer.freeze(aPlant, step - 1);
+            }
+            else if(aPlant.getDormantUntil() > step) {
+                aPlant.carryOver(nextFieldState);
+            }
+            else {
+                keys.key(DrawKeys.Stream.PLANT, currentField.indexOf(currentField.cellOf(aPlant.getLocation())));
+                Weather here = weather.at(aPlant.getLocation());
+                aPlant.act(currentField, nextFieldState, here);
+                if(aPlant.isAlive()) {
+                    aPlant.setDormantUntil(step + 1 + aPlant.dormantSteps(here, stepsUnchanged));
+                }
+            }
+        }
+        if(plantLayer != null) {
+            plantLayer.endStep(nextFieldState, step);
+        }
+    }
+
+    /**
+     * Wake every dormant animal that has one of its predators next to it.
+     */
+    private void wakePrey(Field currentField, int step)
+    {
+        for(Animal predator : currentField.getAnimals()) {
+            if(!predator.isAlive() || !huntsAnimals[predator.getSpeciesId()]) {
+                continue;
+            }
+            // Visit the neighbours in a fixed order: unlike
+            // Field.getAdjacentCells this draws no random numbers, so the
+            // animals that act see the same ones as without scheduling.
+            int count = currentField.getNeighbourCells(predator.getCell(), neighbours);
+            for(int i = 0; i < count; i++) {
+                Animal neighbour = currentField.getAnimalAt(neighbours[i]);
+                if(neighbour != null && neighbour.getDormantUntil() > step
+                        && Diet.isPrey(predator.getSpeciesId(), neighbour.getSpeciesId())) {
+                    neighbour.setDormantUntil(step);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Run a simulation split across several worker processes on this
+ * machine. The world's rows are divided into horizontal strips, one per
+ * StripWorker; neighbouring workers exchange halo rows, kills across
+ * the boundary and migrating animals over loopback TCP connections.
+ * 
+ * The coordinator owns the clock and the weather map, tells every
+ * worker when to step, sends it the weather over its rows and prints
+ * the combined population counts each step, in the single-process
+ * Simulator's format. The strips step their rows at the same time, so
+ * the ecology differs from the Simulator's at the strip boundaries (see
+ * StripWorker).
+ */
+public class StripCoordinator
+{
+    // Halo depth: the widest mate search radius of any species.
+    private static final int DEFAULT_HALO = 10;
+    // How long to wait for each worker to connect.
+    private static final int ACCEPT_TIMEOUT_MILLIS = 30_000;
+    private static final Random rand = Randomizer.getRandom();
+
+    // The number of workers and the world's dimensions.
+    private final int workers, depth, width, halo;
+
+    /**
+     * Run a distributed simulation.
+     * Arguments (all optional): workers, steps, depth, width.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 80;
+        int width = args.length > 3 ? Integer.parseInt(args[3]) : 120;
+        new StripCoordinator(workers, depth, width, DEFAULT_HALO).simulate(steps);
+    }
+
+    /**
+     * Create a coordinator for the given world.
+     * @param workers The number of worker processes.
+     * @param depth Depth of the world.
+     * @param width Width of the world.
+     * @param halo The number of rows exchanged with each neighbour.
+     */
+    public StripCoordinator(int workers, int depth, int width, int halo)
+    {
+        if(workers < 1 || depth / workers < halo) {
+            throw new IllegalArgumentException("Each of the " + workers
+                + " strips must have at least " + halo + " rows");
+        }
+        this.workers = workers;
+        this.depth = depth;
+        this.width = width;
+        this.halo = halo;
+    }
+
+    /**
+     * Start the workers and run the simulation for the given number of
+     * steps, stopping early if it ceases to be viable.
+     */
+    public void simulate(int numSteps) throws IOException, InterruptedException
+    {
+        Process[] processes = new Process[workers];
+        Socket[] sockets = new Socket[workers];
+        try(ServerSocket server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress())) {
+            // A worker that fails to start must not leave us waiting.
+            server.setSoTimeout(ACCEPT_TIMEOUT_MILLIS);
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            for(int i = 0; i < workers; i++) {
+                processes[i] = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                                  "StripWorker", "127.0.0.1",
+                                                  String.valueOf(server.getLocalPort()), String.valueOf(i))
+                    .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            }
+
+            DataInputStream[] in = new DataInputStream[workers];
+            DataOutputStream[] out = new DataOutputStream[workers];
+            int[] neighbourPorts = new int[workers];
+            for(int n = 0; n < workers; n++) {
+                Socket socket = server.accept();
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                int index = input.readInt();
+                neighbourPorts[index] = input.readInt();
+                sockets[index] = socket;
+                in[index] = input;
+                out[index] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            }
+
+            // Tell each worker its rows and where its upper neighbour listens.
+            for(int i = 0; i < workers; i++) {
+                out[i].writeInt(width);
+                out[i].writeInt(depth * i / workers);
+                out[i].writeInt(depth * (i + 1) / workers);
+                out[i].writeInt(halo);
+                out[i].writeInt(i > 0 ? neighbourPorts[i - 1] : -1);
+                out[i].writeBoolean(i < workers - 1);
+                out[i].flush();
+            }
+
+            WeatherMap weather = new WeatherMap(depth, width, rand);
+            Map<String, Integer> counts = collectCounts(in);
+            report(counts);
+            for(int step = 1; step <= numSteps && counts.size() >= 2; step++) {
+                if(Simulator.isWeatherChangeAt(step)) {
+                    weather.advance(rand);
+                }
+                for(int i = 0; i < workers; i++) {
+                    // The weather over the worker's rows and its halo.
+                    int fromRow = Math.max(0, depth * i / workers - halo);
+                    int toRow = Math.min(depth, depth * (i + 1) / workers + halo);
+                    byte[] tiles = weather.getTiles(fromRow, toRow);
+                    out[i].writeInt(step);
+                    out[i].writeBoolean(Simulator.isNightAt(step));
+                    out[i].writeInt(tiles.length);
+                    out[i].write(tiles);
+                    out[i].flush();
+                }
+                counts = collectCounts(in);
+                report(counts);
+            }
+
+            for(int i = 0; i < workers; i++) {
+                out[i].writeInt(-1);
+                out[i].flush();
+            }
+            for(int i = 0; i < workers; i++) {
+                processes[i].waitFor();
+            }
+        }
+        finally {
+            // On failure the workers may still be running, or waiting on
+            // sockets that will never be written to.
+            for(Process process : processes) {
+                if(process != null) {
+                    process.destroyForcibly();
+                }
+            }
+            for(Socket socket : sockets) {
+                if(socket != null) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Read and combine the population counts of every worker.
+     */
+    private Map<String, Integer> collectCounts(DataInputStream[] in) throws IOException
+    {
+        Map<String, Integer> counts = new TreeMap<>();
+        for(DataInputStream input : in) {
+            int species = input.readInt();
+            for(int s = 0; s < species; s++) {
+                counts.merge(input.readUTF(), input.readInt(), Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Print the population counts in the same form as Field.fieldStats().
+     */
+    private void report(Map<String, Integer> counts)
+    {
+        StringBuilder sb = new StringBuilder();
+        for(Map.Entry<String, Integer> e : counts.entrySet()) {
+            sb.append(e.getKey()).append(": ").append(e.getValue()).append(' ');
+        }
+        System.out.println(sb.toString().trim());
+    }
+}
@@ -0,0 +1,101 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A connection between two neighbouring strip workers carrying
+ * length-prefixed messages. Incoming messages are read by a background
+ * thread, so both ends may send before they receive without filling the
+ * socket buffers and deadlocking.
+ */
+public class StripLink implements Closeable
+{
+    // Queued in place of a message when the connection ends.
+    private static final byte[] CLOSED = new byte[0];
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    // Messages read but not yet received.
+    private final BlockingQueue<byte[]> incoming = new LinkedBlockingQueue<>();
+    // Why the reader stopped, if it failed.
+    private volatile IOException failure;
+
+    /**
+     * Start carrying messages over the given connected socket.
+     */
+    public StripLink(Socket socket) throws IOException
+    {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        Thread reader = new Thread(() -> read(in), "strip-link-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Read messages until the connection ends.
+     */
+    private void read(DataInputStream in)
+    {
+        try {
+            while(true) {
+                byte[] message = new byte[in.readInt()];
+                in.readFully(message);
+                incoming.add(message);
+            }
+        }
+        catch(EOFException e) {
+            // The other end closed the connection.
+        }
+        catch(IOException e) {
+            failure = e;
+        }
+        incoming.add(CLOSED);
+    }
+
+    /**
+     * Send a message.
+     */
+    public void send(byte[] message) throws IOException
+    {
+        out.writeInt(message.length);
+        out.write(message);
+        out.flush();
+    }
+
+    /**
+     * Wait for the next message.
+     */
+    public byte[] receive() throws IOException
+    {
+        byte[] message;
+        try {
+            message = incoming.take();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while receiving");
+        }
+        if(message == CLOSED) {
+            incoming.add(CLOSED);
+            throw failure != null ? failure : new EOFException("link closed");
+        }
+        return message;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        socket.close();
+    }
+}
@@ -0,0 +1,389 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One worker process of a distributed simulation. The worker owns a
+ * horizontal strip of the world's rows and is started by a
+ * StripCoordinator.
+ * 
+ * Its local field holds the owned rows plus a halo of rows above and
+ * below. Each step the worker:
+ *  - receives the weather map's tiles over its rows from the
+ *    coordinator;
+ *  - sends the animals and plants of its outermost owned rows to its
+ *    neighbours and receives theirs into the halo, so mate search,
+ *    predator checks and feeding see across the boundary;
+ *  - lets its own animals and plants act;
+ *  - tells each neighbour which of its animals and plants were eaten
+ *    from the halo, and kills those it is told of;
+ *  - sends anything that moved, was born or spread into the halo to
+ *    the neighbour owning those rows, and places what it receives;
+ *  - reports its population counts to the coordinator.
+ *
+ * Neighbouring strips step at the same time, so unlike in the
+ * Simulator an animal or plant eaten from the halo has still acted
+ * this step in its own strip, and if it was also eaten there both
+ * meals stand.
+ */
+public class StripWorker
+{
+    // The world's width and this worker's share of its rows.
+    private final int width, firstRow, endRow;
+    // Halo rows above and below the owned rows (zero at the world's edge).
+    private final int haloTop, haloBottom;
+    // Connections to the neighbours above and below, or null.
+    private final StripLink up, down;
+    // The current state of the strip.
+    private Field field;
+    // The weather, kept up to date over the local rows only.
+    private final WeatherMap weather;
+    // The animals and plants placed in the halo this step, as received.
+    private final List<Ghost> ghosts = new ArrayList<>();
+
+    /**
+     * An animal or plant copied into the halo from a neighbour, where
+     * it was received.
+     */
+    private record Ghost(Animal animal, Plant plant, Location location)
+    {
+        /** Whether it has been eaten. */
+        boolean eaten()
+        {
+            return animal != null ? !animal.isAlive() : !plant.isAlive();
+        }
+    }
+
+    /**
+     * Start a worker.
+     * Arguments: coordinator host, coordinator port, worker index.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        int index = Integer.parseInt(args[2]);
+        try(Socket socket = new Socket(host, port);
+            ServerSocket neighbourServer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out.writeInt(index);
+            out.writeInt(neighbourServer.getLocalPort());
+            out.flush();
+
+            int width = in.readInt();
+            int firstRow = in.readInt();
+            int endRow = in.readInt();
+            int halo = in.readInt();
+            int upPort = in.readInt();
+            boolean hasDown = in.readBoolean();
+
+            // The lower worker connects to the upper one's server.
+            StripLink up = upPort >= 0 ? new StripLink(new Socket(host, upPort)) : null;
+            StripLink down = hasDown ? new StripLink(neighbourServer.accept()) : null;
+            StripWorker worker = new StripWorker(width, firstRow, endRow,
+                                                 up != null ? halo : 0, down != null ? halo : 0,
+                                                 up, down);
+            worker.run(in, out);
+        }
+    }
+
+    /**
+     * Create a worker for the given rows and populate them.
+     */
+    private StripWorker(int width, int firstRow, int endRow, int haloTop, int haloBottom,
+                        StripLink up, StripLink down)
+    {
+        this.width = width;
+        this.firstRow = firstRow;
+        this.endRow = endRow;
+        this.haloTop = haloTop;
+        this.haloBottom = haloBottom;
+        this.up = up;
+        this.down = down;
+        field = newField();
+        weather = new WeatherMap(endRow + haloBottom, width, Randomizer.getRandom());
+        PopulationInitializer.populate(field, haloTop, haloTop + endRow - firstRow,
+                                       Randomizer.getRandom().nextLong());
+    }
+
+    /**
+     * Run steps as instructed by the coordinator until told to stop.
+     * Each instruction is the step number (negative to stop), whether
+     * it is night and the weather map's tiles over the local rows.
+     */
+    private void run(DataInputStream in, DataOutputStream out) throws IOException
+    {
+        reportCounts(out);
+        int step = in.readInt();
+        while(step >= 0) {
+            boolean isNight = in.readBoolean();
+            byte[] tiles = new byte[in.readInt()];
+            in.readFully(tiles);
+            weather.setTiles(firstRow - haloTop, tiles);
+            simulateOneStep(isNight);
+            reportCounts(out);
+            step = in.readInt();
+        }
+        if(up != null) {
+            up.close();
+        }
+        if(down != null) {
+            down.close();
+        }
+    }
+
+    /**
+     * Advance the strip by one step.
+     */
+    private void simulateOneStep(boolean isNight) throws IOException
+    {
+        exchangeHalo();
+        Field nextFieldState = newField();
+        for(Animal anAnimal : field.getAnimals()) {
+            // Halo animals belong to a neighbour, which moves them itself.
+            if(anAnimal.isAlive() && field.isOwned(anAnimal.getCell())) {
+                anAnimal.act(field, nextFieldState, isNight, weatherAt(anAnimal.getCell()));
+            }
+        }
+        for(Plant aPlant : field.getPlants()) {
+            int cell = aPlant.isAlive() ? field.cellOf(aPlant.getLocation()) : -1;
+            if(cell >= 0 && field.isOwned(cell)) {
+                aPlant.act(field, nextFieldState, weatherAt(cell));
+            }
+        }
+        exchangeKills(nextFieldState);
+        migrate(nextFieldState);
+        field = nextFieldState;
+    }
+
+    /**
+     * Return the weather at a cell of the local field.
+     */
+    private Weather weatherAt(int cell)
+    {
+        return weather.at(field.rowOf(cell) - haloTop + firstRow, field.colOf(cell));
+    }
+
+    /**
+     * Send the outermost owned rows to each neighbour and place copies
+     * of theirs in the halo.
+     */
+    private void exchangeHalo() throws IOException
+    {
+        int ownedRows = endRow - firstRow;
+        if(up != null) {
+            up.send(encodeAll(field, haloTop, 2 * haloTop));
+        }
+        if(down != null) {
+            down.send(encodeAll(field, haloTop + ownedRows - haloBottom, haloTop + ownedRows));
+        }
+        ghosts.clear();
+        EntityCodec.Receiver receiver = new EntityCodec.Receiver() {
+            public void animal(Animal animal)
+            {
+                ghosts.add(new Ghost(animal, null, animal.getLocation()));
+                field.placeAnimal(animal, animal.getLocation());
+            }
+
+            public void plant(Plant plant)
+            {
+                ghosts.add(new Ghost(null, plant, plant.getLocation()));
+                field.placePlant(plant, plant.getLocation());
+            }
+        };
+        if(up != null) {
+            EntityCodec.decode(up.receive(), haloTop - firstRow, receiver);
+        }
+        if(down != null) {
+            EntityCodec.decode(down.receive(), haloTop - firstRow, receiver);
+        }
+    }
+
+    /**
+     * Tell each neighbour which of its animals and plants were eaten
+     * from the halo, and kill those eaten by the neighbours, so that
+     * they are not handed over or kept.
+     */
+    private void exchangeKills(Field nextFieldState) throws IOException
+    {
+        EntityCodec upKills = new EntityCodec();
+        EntityCodec downKills = new EntityCodec();
+        for(Ghost ghost : ghosts) {
+            if(ghost.eaten()) {
+                int row = ghost.location().row();
+                EntityCodec kills = row < haloTop ? upKills : downKills;
+                if(ghost.animal() != null) {
+                    kills.add(ghost.animal(), row - haloTop + firstRow, ghost.location().col());
+                }
+                else {
+                    kills.add(ghost.plant(), row - haloTop + firstRow, ghost.location().col());
+                }
+            }
+        }
+        ghosts.clear();
+        if(up != null) {
+            up.send(upKills.finish());
+        }
+        if(down != null) {
+            down.send(downKills.finish());
+        }
+        EntityCodec.Receiver kills = new EntityCodec.Receiver() {
+            public void animal(Animal eaten)
+            {
+                Animal animal = field.getAnimalAt(eaten.getLocation());
+                if(animal != null && animal.isAlive() && animal.getSpeciesId() == eaten.getSpeciesId()) {
+                    animal.setDead();
+                }
+            }
+
+            public void plant(Plant eaten)
+            {
+                int cell = field.cellOf(eaten.getLocation());
+                Plant plant = field.getPlantAt(cell);
+                if(plant != null && plant.isAlive() && plant.getSpeciesId() == eaten.getSpeciesId()) {
+                    plant.setDead();
+                    field.clearPlant(cell);
+                    if(nextFieldState.getPlantAt(cell) == plant) {
+                        nextFieldState.clearPlant(cell);
+                    }
+                }
+            }
+        };
+        if(up != null) {
+            EntityCodec.decode(up.receive(), haloTop - firstRow, kills);
+        }
+        if(down != null) {
+            EntityCodec.decode(down.receive(), haloTop - firstRow, kills);
+        }
+    }
+
+    /**
+     * Hand everything that ended up in the halo rows of the next field
+     * to the neighbour owning those rows, and place what the neighbours
+     * hand over.
+     */
+    private void migrate(Field nextFieldState) throws IOException
+    {
+        int ownedEnd = haloTop + endRow - firstRow;
+        if(up != null) {
+            up.send(encodeAll(nextFieldState, 0, haloTop));
+            nextFieldState.clearRows(0, haloTop);
+        }
+        if(down != null) {
+            down.send(encodeAll(nextFieldState, ownedEnd, ownedEnd + haloBottom));
+            nextFieldState.clearRows(ownedEnd, ownedEnd + haloBottom);
+        }
+        EntityCodec.Receiver arrivals = new EntityCodec.Receiver() {
+            public void animal(Animal animal)
+            {
+                placeArrival(nextFieldState, animal);
+            }
+
+            public void plant(Plant plant)
+            {
+                int cell = nextFieldState.cellOf(plant.getLocation());
+                if(nextFieldState.getPlantAt(cell) == null) {
+                    nextFieldState.placePlant(plant, cell);
+                }
+            }
+        };
+        if(up != null) {
+            EntityCodec.decode(up.receive(), haloTop - firstRow, arrivals);
+        }
+        if(down != null) {
+            EntityCodec.decode(down.receive(), haloTop - firstRow, arrivals);
+        }
+    }
+
+    /**
+     * Place an animal arriving from a neighbour at its location or, if
+     * a local animal got there first, at a free owned cell next to it.
+     * With nowhere to go it dies, as an animal that cannot move does.
+     */
+    private void placeArrival(Field nextFieldState, Animal animal)
+    {
+        int cell = nextFieldState.cellOf(animal.getLocation());
+        Animal other = nextFieldState.getAnimalAt(cell);
+        if(other != null && other.isAlive()) {
+            int[] free = new int[8];
+            int count = nextFieldState.getFreeAdjacentCells(cell, free);
+            cell = -1;
+            for(int i = 0; i < count && cell < 0; i++) {
+                if(nextFieldState.isOwned(free[i])) {
+                    cell = free[i];
+                }
+            }
+            if(cell < 0) {
+                return;
+            }
+        }
+        nextFieldState.placeAnimal(animal, cell);
+    }
+
+    /**
+     * Encode the live animals and plants in the given local rows.
+     */
+    private byte[] encodeAll(Field aField, int fromRow, int toRow) throws IOException
+    {
+        EntityCodec codec = new EntityCodec();
+        for(int row = fromRow; row < toRow; row++) {
+            for(int col = 0; col < width; col++) {
+                int cell = aField.cellOf(row, col);
+                Animal animal = aField.getAnimalAt(cell);
+                if(animal != null && animal.isAlive()) {
+                    codec.add(animal, row - haloTop + firstRow, col);
+                }
+                Plant plant = aField.getPlantAt(cell);
+                if(plant != null && plant.isAlive()) {
+                    codec.add(plant, row - haloTop + firstRow, col);
+                }
+            }
+        }
+        return codec.finish();
+    }
+
+    /**
+     * Send the number of live animals and plants of each species.
+     */
+    private void reportCounts(DataOutputStream out) throws IOException
+    {
+        Map<String, Integer> counts = new HashMap<>();
+        for(Animal anAnimal : field.getAnimals()) {
+            if(anAnimal.isAlive()) {
+                counts.merge(anAnimal.getClass().getSimpleName(), 1, Integer::sum);
+            }
+        }
+        for(Plant aPlant : field.getPlants()) {
+            if(aPlant.isAlive()) {
+                counts.merge(aPlant.getClass().getSimpleName(), 1, Integer::sum);
+            }
+        }
+        out.writeInt(counts.size());
+        for(Map.Entry<String, Integer> e : counts.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeInt(e.getValue());
+        }
+        out.flush();
+    }
+
+    /**
+     * Create an empty local field with the halo rows marked as not owned.
+     */
+    private Field newField()
+    {
+        int ownedRows = endRow - firstRow;
+        Field aField = new Field(haloTop + ownedRows + haloBottom, width);
+        aField.setOwnedRows(haloTop, haloTop + ownedRows);
+        return aField;
+    }
+}
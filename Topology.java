@@ -0,0 +1,18 @@
+/**
+ * How the edges of a field are joined, which decides the neighbours of
+ * the cells along them.
+ */
+public enum Topology
+{
+    // The field ends at its edges; edge cells have fewer neighbours.
+    BOUNDED,
+    // As BOUNDED, but the field's layers are laid out with a ring of
+    // sentinel cells around the grid, so that the Moore neighbourhood of
+    // every cell is read without bounds tests. The neighbours found and
+    // the numbers drawn are those of BOUNDED.
+    HALO,
+    // Opposite edges are joined, so every cell has a full neighbourhood.
+    // The grid must be at least as large as every neighbourhood asked
+    // for (see Neighbourhood.wrappedCells).
+    TORUS
+}
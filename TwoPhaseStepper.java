@@ -0,0 +1,120 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Advance the animals by one step in two phases.
+ * 
+ * In the plan phase every animal decides what it wants to do (breed,
+ * eat, move) by reading the current field only. Animals are split into
+ * chunks which plan in parallel, each chunk into its own buffer, so no
+ * shared state is written. Plans draw from keys (see DrawKeys) even
+ * when the simulation's draws are not otherwise keyed, so which worker
+ * plans which chunk, and when, does not change the results.
+ * 
+ * In the commit phase the buffers are applied in chunk order on a single
+ * thread. Conflicts are resolved there: an animal eaten by an earlier
+ * intent does not act, prey already taken is not eaten twice, and a
+ * target cell that is already occupied in the next field sends the
+ * animal to a free neighbour instead.
+ */
+public class TwoPhaseStepper
+{
+    // The number of animals planned into each buffer.
+    private static final int CHUNK_SIZE = 512;
+
+    // Keys the draws of each animal as it plans, and as it commits in
+    // counter-based mode.
+    private final DrawKeys keys;
+
+    /**
+     * Create a stepper keying the animals' draws.
+     */
+    public TwoPhaseStepper(DrawKeys keys)
+    {
+        this.keys = keys;
+    }
+
+    /**
+     * Advance every animal in the current field into the next field state.
+     * @param currentField The current state of the field.
+     * @param nextFieldState The new state being built.
+     * @param isNight If its night or not
+     * @param weather Current weather over the field
+     */
+    public void step(Field currentField, Field nextFieldState, boolean isNight, WeatherMap weather)
+    {
+        List<Animal> animals = currentField.getAnimals();
+        int chunks = (animals.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        List<List<Intent>> buffers = new ArrayList<>(Collections.nCopies(chunks, null));
+
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            int from = chunk * CHUNK_SIZE;
+            int to = Math.min(from + CHUNK_SIZE, animals.size());
+            List<Intent> buffer = new ArrayList<>(to - from);
+            for(int i = from; i < to; i++) {
+                Animal anAnimal = animals.get(i);
+                if(!anAnimal.isAlive()) {
+                    continue;
+                }
+                keys.keyParallel(DrawKeys.Stream.PLAN, currentField.indexOf(anAnimal.getCell()));
+                Intent intent = anAnimal.plan(currentField, isNight, weather.at(currentField, anAnimal.getCell()));
+                if(intent != null) {
+                    buffer.add(intent);
+                }
+            }
+            keys.release();
+            buffers.set(chunk, buffer);
+        });
+
+        for(List<Intent> buffer : buffers) {
+            for(Intent intent : buffer) {
+                commit(intent, currentField, nextFieldState);
+            }
+        }
+    }
+
+    /**
+     * Apply a single intent to the next field state.
+     */
+    private void commit(Intent intent, Field currentField, Field nextFieldState)
+    {
+        Animal actor = intent.actor();
+        // The actor may have been eaten by an earlier intent.
+        if(!actor.isAlive()) {
+            return;
+        }
+        keys.key(DrawKeys.Stream.COMMIT, currentField.indexOf(actor.getCell()));
+        actor.incrementAge();
+        actor.incrementHunger();
+        if(!actor.isAlive()) {
+            return;
+        }
+        Animal.FreeCells free = Animal.FreeCells.around(nextFieldState, actor.getCell());
+        if(!free.isEmpty()) {
+            actor.placeYoung(nextFieldState, free, intent.births());
+        }
+        if(intent.resting()) {
+            nextFieldState.placeAnimal(actor, actor.getCell());
+            return;
+        }
+        int nextCell = -1;
+        // The food may have been taken by an earlier intent.
+        if(intent.food() >= 0 && actor.eat(currentField, intent.food())) {
+            nextCell = intent.food();
+        }
+        if(nextCell >= 0 && nextFieldState.getAnimalAt(nextCell) != null) {
+            nextCell = free.take();
+        }
+        if(nextCell < 0) {
+            nextCell = free.take();
+        }
+        if(nextCell >= 0) {
+            nextFieldState.placeAnimal(actor, nextCell);
+        }
+        else {
+            actor.setDead();
+        }
+    }
+}
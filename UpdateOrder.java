@@ -0,0 +1,19 @@
+/**
+ * The order in which the animals and plants act each step. Entities act
+ * in the order of the field's lists, which are reordered to match.
+ */
+public enum UpdateOrder
+{
+    // The order the entities were placed in the field, which after a few
+    // steps has little to do with where they are.
+    INSERTION,
+    // Row by row across the grid, so neighbouring entities act close in
+    // time and their cells are read close together.
+    ROW_MAJOR,
+    // Along a Z-order (Morton) curve, which keeps entities in the same
+    // small square together, however wide the field.
+    MORTON,
+    // A new random order every step, so no entity is favoured by its
+    // position in the lists.
+    SHUFFLED
+}
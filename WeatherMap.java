@@ -0,0 +1,176 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The weather over the field, held per tile of TILE_SIZE x TILE_SIZE
+ * cells so that rain fronts and fog banks can cross a large field
+ * instead of the whole field changing at once.
+ *
+ * Each hour most tiles take the weather of the tile upwind of it, so
+ * that fronts drift across the field with the wind, and a few change at
+ * random. The weather blowing in over the upwind edge changes hourly as
+ * the single global weather used to. The tiles are one byte each, so a
+ * lookup is a shift and an array load.
+ */
+public class WeatherMap
+{
+    // The side of a tile in cells, as a power of two.
+    private static final int TILE_SHIFT = 4;
+    public static final int TILE_SIZE = 1 << TILE_SHIFT;
+    // The probability that a tile takes the weather upwind of it.
+    private static final double DRIFT_PROBABILITY = 0.8;
+    // The probability that a tile's weather changes at random.
+    private static final double CHANGE_PROBABILITY = 0.02;
+    // The probability that the weather blowing in changes.
+    private static final double INCOMING_CHANGE_PROBABILITY = 0.45;
+    private static final Weather[] STATES = Weather.values();
+
+    private final int tileRows;
+    private final int tileCols;
+    // The weather of each tile, as Weather ordinals in row-major order.
+    private byte[] tiles;
+    // The tiles for the next hour, swapped with tiles on each change.
+    private byte[] nextTiles;
+    // The direction the weather comes from, as a tile offset.
+    private final int windRow;
+    private final int windCol;
+    // The weather blowing in over the upwind edge.
+    private Weather incoming;
+
+    /**
+     * Create the weather for a field, with the same random weather in
+     * every tile and the wind blowing from a random direction.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param rand The random generator deciding the weather.
+     */
+    public WeatherMap(int depth, int width, Random rand)
+    {
+        tileRows = (depth + TILE_SIZE - 1) >> TILE_SHIFT;
+        tileCols = (width + TILE_SIZE - 1) >> TILE_SHIFT;
+        tiles = new byte[tileRows * tileCols];
+        nextTiles = new byte[tiles.length];
+        int[][] winds = { { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 } };
+        int[] wind = winds[rand.nextInt(winds.length)];
+        windRow = wind[0];
+        windCol = wind[1];
+        incoming = Weather.random(rand);
+        Arrays.fill(tiles, (byte) incoming.ordinal());
+    }
+
+    /**
+     * Return the weather at a cell.
+     */
+    public Weather at(int row, int col)
+    {
+        return STATES[tiles[(row >> TILE_SHIFT) * tileCols + (col >> TILE_SHIFT)]];
+    }
+
+    /**
+     * Return the weather at a cell of the given field.
+     */
+    public Weather at(Field field, int cell)
+    {
+        return at(field.rowOf(cell), field.colOf(cell));
+    }
+
+    /**
+     * Return the weather at a location.
+     */
+    public Weather at(Location location)
+    {
+        return at(location.row(), location.col());
+    }
+
+    /**
+     * Return the tiles covering the given rows of cells, row by row, to
+     * be copied into another map of the same width (see setTiles).
+     * @param fromRow The first row of cells.
+     * @param toRow The row after the last one.
+     */
+    public byte[] getTiles(int fromRow, int toRow)
+    {
+        int firstTileRow = fromRow >> TILE_SHIFT;
+        int endTileRow = ((toRow - 1) >> TILE_SHIFT) + 1;
+        return Arrays.copyOfRange(tiles, firstTileRow * tileCols, endTileRow * tileCols);
+    }
+
+    /**
+     * Overwrite the tiles from the given row of cells on with ones
+     * taken from another map by getTiles.
+     * @param fromRow The first row of cells given to getTiles.
+     * @param rows The tiles.
+     */
+    public void setTiles(int fromRow, byte[] rows)
+    {
+        System.arraycopy(rows, 0, tiles, (fromRow >> TILE_SHIFT) * tileCols, rows.length);
+    }
+
+    /**
+     * Move the weather on by an hour.
+     * @param rand The random generator deciding the changes.
+     */
+    public void advance(Random rand)
+    {
+        if(rand.nextDouble() <= INCOMING_CHANGE_PROBABILITY) {
+            incoming = Weather.random(rand);
+        }
+        for(int row = 0; row < tileRows; row++) {
+            for(int col = 0; col < tileCols; col++) {
+                int tile = row * tileCols + col;
+                double roll = rand.nextDouble();
+                if(roll < DRIFT_PROBABILITY) {
+                    int fromRow = row + windRow;
+                    int fromCol = col + windCol;
+                    if(fromRow >= 0 && fromRow < tileRows && fromCol >= 0 && fromCol < tileCols) {
+                        nextTiles[tile] = tiles[fromRow * tileCols + fromCol];
+                    }
+                    else {
+                        nextTiles[tile] = (byte) incoming.ordinal();
+                    }
+                }
+                else if(roll < DRIFT_PROBABILITY + CHANGE_PROBABILITY) {
+                    nextTiles[tile] = (byte) Weather.random(rand).ordinal();
+                }
+                else {
+                    nextTiles[tile] = tiles[tile];
+                }
+            }
+        }
+        byte[] swap = tiles;
+        tiles = nextTiles;
+        nextTiles = swap;
+    }
+
+    /**
+     * Return the weather covering the most tiles.
+     */
+    public Weather dominant()
+    {
+        int[] counts = new int[STATES.length];
+        for(byte tile : tiles) {
+            counts[tile]++;
+        }
+        int best = 0;
+        for(int i = 1; i < counts.length; i++) {
+            if(counts[i] > counts[best]) {
+                best = i;
+            }
+        }
+        return STATES[best];
+    }
+
+    /**
+     * Return the share of the tiles with the given weather.
+     */
+    public double share(Weather weather)
+    {
+        int count = 0;
+        for(byte tile : tiles) {
+            if(tile == weather.ordinal()) {
+                count++;
+            }
+        }
+        return (double) count / tiles.length;
+    }
+}